@@ -1,3 +1,21 @@
 dependencies{
     compileOnly("io.papermc.paper:paper-api:1.20.1-R0.1-SNAPSHOT")
-}
\ No newline at end of file
+    testImplementation("io.papermc.paper:paper-api:1.20.1-R0.1-SNAPSHOT")
+}
+
+tasks.test {
+    useJUnitPlatform {
+        excludeTags("benchmark")
+    }
+}
+
+tasks.register<Test>("benchmark") {
+    description = "Runs the benchmarks tagged with @Tag(\"benchmark\")."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    testLogging.showStandardStreams = true
+}
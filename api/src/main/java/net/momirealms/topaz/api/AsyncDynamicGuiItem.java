@@ -0,0 +1,199 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * 表示在 GUI 中异步查询数据的动态物品。查询返回一个 {@link CompletableFuture}，
+ * 在其完成之前会显示加载中的物品（如果已有上次查询的结果，则继续显示上次的结果）。
+ * 查询完成后只会为该玩家重新渲染此物品所在的槽位；如果玩家在此期间关闭了 GUI，结果将被丢弃。
+ */
+public class AsyncDynamicGuiItem extends DynamicGuiItem {
+    private volatile Function<HumanEntity, CompletableFuture<GuiItem>> asyncQuery;
+    private volatile GuiItem loadingItem;
+
+    /**
+     * 表示在 GUI 中异步查询数据的物品。
+     * @param slotChar      用于替换 GUI 设置字符串中的字符
+     * @param loadingItem   查询完成之前显示的物品，可以为 <code>null</code>
+     * @param query         异步查询物品数据的函数
+     */
+    public AsyncDynamicGuiItem(char slotChar, GuiItem loadingItem, Supplier<CompletableFuture<GuiItem>> query) {
+        super(slotChar, () -> null);
+        this.loadingItem = loadingItem;
+        this.asyncQuery = (h) -> query.get();
+    }
+
+    /**
+     * 表示在 GUI 中为每个玩家异步查询数据的物品。
+     * @param slotChar      用于替换 GUI 设置字符串中的字符
+     * @param loadingItem   查询完成之前显示的物品，可以为 <code>null</code>
+     * @param query         异步查询物品数据的函数，应正确处理空玩家
+     */
+    public AsyncDynamicGuiItem(char slotChar, GuiItem loadingItem, Function<HumanEntity, CompletableFuture<GuiItem>> query) {
+        super(slotChar, (h) -> null);
+        this.loadingItem = loadingItem;
+        this.asyncQuery = query;
+    }
+
+    /**
+     * 开始为特定玩家查询此物品。查询完成之前，缓存中保存的是加载中的物品或上次查询的结果。
+     * @param player 要更新物品的玩家
+     * @return 查询完成之前使用的缓存条目
+     */
+    @Override
+    public CacheEntry update(HumanEntity player) {
+        CacheEntry previous = getCacheEntry(player);
+        CacheEntry pending = new Pending(previous != null && previous.getItem() != null ? previous.getItem() : queryItem(player));
+        putCacheEntry(player, pending);
+
+        CompletableFuture<GuiItem> future;
+        try {
+            future = asyncQuery.apply(player);
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+        if (future == null) {
+            // 没有可等待的查询，继续显示当前的物品，下次刷新时按缓存策略重新查询
+            Result fallback = new Result(pending.getItem(), false);
+            replaceCacheEntry(player, pending, fallback);
+            return fallback;
+        }
+        future.whenComplete((item, throwable) -> {
+            TopazUI gui = this.gui;
+            if (getCacheEntry(player) != pending) {
+                return;
+            }
+            if (throwable != null) {
+                if (gui != null) {
+                    gui.getPlugin().getLogger().log(Level.WARNING, "查询 " + gui.getTitle() + " GUI 中的异步物品时发生异常！", throwable);
+                }
+                // 继续显示当前的物品，该条目过期后会重新查询
+                if (replaceCacheEntry(player, pending, new Result(pending.getItem(), true))) {
+                    markDirty(player);
+                }
+                return;
+            }
+            if (gui == null) {
+                replaceCacheEntry(player, pending, new Result(item, true));
+                return;
+            }
+            gui.runTaskOrNow(player, () -> {
+                if (item != null) {
+                    item.setGui(gui);
+                    item.setSlots(slots);
+                    if (item instanceof DynamicGuiItem) {
+                        ((DynamicGuiItem) item).update(player);
+                    } else if (item instanceof GuiItemGroup) {
+                        TopazUI.updateItems(player, ((GuiItemGroup) item).getItems());
+                    }
+                }
+                // 玩家已关闭 GUI 或已开始新的查询时，缓存条目已被删除或替换。
+                // 结果只属于该玩家，只为其重新渲染，避免其他查看者因此重新查询
+                if (replaceCacheEntry(player, pending, new Result(item, true))) {
+                    markDirty(player);
+                }
+            });
+        });
+        // 查询可能已经同步完成
+        CacheEntry current = getCacheEntry(player);
+        return current != null ? current : pending;
+    }
+
+    /**
+     * 查询进行中时不会开始新的查询，除非查询已超过缓存的有效时间；
+     * 刚完成的结果在第一次重新渲染时直接使用，不会立即再次查询。其他情况按照缓存策略处理。
+     * @param player 要更新物品的玩家
+     * @return 当前的缓存条目
+     */
+    @Override
+    public CacheEntry refresh(HumanEntity player) {
+        CacheEntry cached = getCacheEntry(player);
+        if (cached instanceof Pending) {
+            long ttl = getCacheTtl();
+            if (ttl > 0 && System.currentTimeMillis() - cached.getCreated() >= ttl) {
+                // 查询未在有效时间内完成，重新查询
+                return update(player);
+            }
+            return cached;
+        }
+        if (cached instanceof Result && ((Result) cached).fresh) {
+            ((Result) cached).fresh = false;
+            return cached;
+        }
+        return super.refresh(player);
+    }
+
+    /**
+     * 获取加载中的物品，已设置好 GUI 和槽位
+     * @param who 玩家
+     * @return 加载中的物品或null
+     */
+    @Override
+    public GuiItem queryItem(HumanEntity who) {
+        GuiItem item = loadingItem;
+        if (item != null) {
+            item.setGui(gui);
+            item.setSlots(slots);
+        }
+        return item;
+    }
+
+    /**
+     * 获取此物品的异步查询
+     * @return 异步查询
+     */
+    public Function<HumanEntity, CompletableFuture<GuiItem>> getAsyncQuery() {
+        return asyncQuery;
+    }
+
+    /**
+     * 设置此物品的异步查询
+     * @param asyncQuery 要设置的异步查询
+     */
+    public void setAsyncQuery(Function<HumanEntity, CompletableFuture<GuiItem>> asyncQuery) {
+        this.asyncQuery = asyncQuery;
+    }
+
+    /**
+     * 获取查询完成之前显示的物品
+     * @return 加载中的物品或null
+     */
+    public GuiItem getLoadingItem() {
+        return loadingItem;
+    }
+
+    /**
+     * 设置查询完成之前显示的物品
+     * @param loadingItem 加载中的物品，可以为 <code>null</code>
+     */
+    public void setLoadingItem(GuiItem loadingItem) {
+        this.loadingItem = loadingItem;
+    }
+
+    /**
+     * 查询进行中时使用的缓存条目
+     */
+    private class Pending extends CacheEntry {
+        private Pending(GuiItem item) {
+            super(item);
+        }
+    }
+
+    /**
+     * 已完成或失败的查询结果。失败时保存的是查询前显示的物品。
+     */
+    private class Result extends CacheEntry {
+        private volatile boolean fresh;
+
+        private Result(GuiItem item, boolean fresh) {
+            super(item);
+            this.fresh = fresh;
+        }
+    }
+}
@@ -13,9 +13,18 @@ import java.util.function.Supplier;
 
 /**
  * 表示在 GUI 中会在绘制时查询所有数据的物品。
+ * 默认情况下每次绘制都会重新查询；可以通过 {@link #setCacheTtl(long)}、{@link #setRefreshAhead(long)}、
+ * {@link #setMaxCacheSize(int)} 和 {@link #setSharedCache(boolean)} 为开销较大的查询设置缓存策略。
  */
 public class DynamicGuiItem extends GuiItem {
-    private Function<HumanEntity, GuiItem> query;
+    private static final UUID SHARED_KEY = new UUID(0, 0);
+
+    private volatile Function<HumanEntity, GuiItem> query;
+    private volatile boolean viewerDependent;
+    private volatile long cacheTtl = 0;
+    private volatile long refreshAhead = 0;
+    private volatile int maxCacheSize = 0;
+    private volatile boolean sharedCache = false;
 
     private final Map<UUID, CacheEntry> cachedItems = new ConcurrentHashMap<>();
 
@@ -26,6 +35,7 @@ public class DynamicGuiItem extends GuiItem {
      */
     public DynamicGuiItem(char slotChar, Supplier<GuiItem> query) {
         this(slotChar, (h) -> query.get());
+        this.viewerDependent = false;
     }
 
     /**
@@ -36,12 +46,25 @@ public class DynamicGuiItem extends GuiItem {
     public DynamicGuiItem(char slotChar, Function<HumanEntity, GuiItem> query) {
         super(slotChar);
         this.query = query;
+        this.viewerDependent = true;
     }
 
     /**
      * 更新每个已缓存玩家的物品状态
      */
     public void update() {
+        if (sharedCache) {
+            // 共享的结果使用任意一个在线的查看者查询
+            for (UUID viewerId : gui.getViewerIds()) {
+                Player p = gui.getPlugin().getServer().getPlayer(viewerId);
+                if (p != null && p.isOnline()) {
+                    update(p);
+                    return;
+                }
+            }
+            cachedItems.remove(SHARED_KEY);
+            return;
+        }
         for (UUID playerId : new ArrayList<>(cachedItems.keySet())) {
             Player p = gui.getPlugin().getServer().getPlayer(playerId);
             if (p != null && p.isOnline()) {
@@ -63,10 +86,52 @@ public class DynamicGuiItem extends GuiItem {
         } else if (cacheEntry.item instanceof GuiItemGroup) {
             TopazUI.updateItems(player, ((GuiItemGroup) cacheEntry.item).getItems());
         }
-        cachedItems.put(player.getUniqueId(), cacheEntry);
+        putCacheEntry(player, cacheEntry);
         return cacheEntry;
     }
 
+    /**
+     * 按照缓存策略更新特定玩家的此物品状态。只有在缓存条目不存在或已过期时才会重新查询；
+     * 如果设置了提前刷新且条目即将过期，则在下一刻重新查询，在此之前继续使用当前条目。
+     * @param player 要更新物品的玩家
+     * @return 当前的缓存条目
+     */
+    public CacheEntry refresh(HumanEntity player) {
+        CacheEntry cached = getCacheEntry(player);
+        long ttl = cacheTtl;
+        if (cached == null || ttl <= 0) {
+            return update(player);
+        }
+        long age = System.currentTimeMillis() - cached.getCreated();
+        if (age >= ttl) {
+            return update(player);
+        }
+        long ahead = refreshAhead;
+        if (ahead > 0 && age >= ttl - ahead && !cached.refreshing) {
+            cached.refreshing = true;
+            gui.runTask(player, () -> {
+                if (getCacheEntry(player) == cached) {
+                    update(player);
+                    markDirty(player);
+                }
+            });
+        }
+        return cached;
+    }
+
+    /**
+     * 将该物品标记为脏。使用共享缓存时结果对所有查看者可见，因此为所有查看者重新渲染。
+     * @param who 要重新渲染的查看者
+     */
+    @Override
+    public void markDirty(HumanEntity who) {
+        if (sharedCache) {
+            markDirty();
+        } else {
+            super.markDirty(who);
+        }
+    }
+
     /**
      * 设置GUI
      * @param gui  要设置的GUI
@@ -114,6 +179,86 @@ public class DynamicGuiItem extends GuiItem {
      */
     public void setQuery(Function<HumanEntity, GuiItem> query) {
         this.query = query;
+        this.viewerDependent = true;
+    }
+
+    /**
+     * 使用玩家函数创建的动态物品被视为依赖于查看者，使用 {@link Supplier} 创建的则不是
+     * @return 此物品的查询是否依赖于查看者
+     */
+    @Override
+    public boolean isViewerDependent() {
+        return viewerDependent && !sharedCache;
+    }
+
+    /**
+     * 获取缓存条目的有效时间
+     * @return 有效时间（毫秒），0 表示每次绘制都重新查询
+     */
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /**
+     * 设置缓存条目的有效时间。在此时间内绘制 GUI 不会重新查询物品。
+     * @param cacheTtl 有效时间（毫秒），0 表示每次绘制都重新查询
+     */
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = Math.max(0, cacheTtl);
+    }
+
+    /**
+     * 获取提前刷新的时间
+     * @return 在过期前多少毫秒开始刷新，0 表示不提前刷新
+     */
+    public long getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * 设置提前刷新的时间。当缓存条目在此时间内即将过期时，绘制会继续使用当前条目，
+     * 并在下一刻重新查询，之后只重新渲染此物品的槽位。
+     * @param refreshAhead 在过期前多少毫秒开始刷新，0 表示不提前刷新
+     */
+    public void setRefreshAhead(long refreshAhead) {
+        this.refreshAhead = Math.max(0, refreshAhead);
+    }
+
+    /**
+     * 获取缓存的最大条目数
+     * @return 最大条目数，0 表示不限制
+     */
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * 设置缓存的最大条目数。超出时将移除最早创建的条目。
+     * @param maxCacheSize 最大条目数，0 表示不限制
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = Math.max(0, maxCacheSize);
+        evictOverflow();
+    }
+
+    /**
+     * 检查所有查看者是否共享同一个缓存结果
+     * @return 是否共享缓存
+     */
+    public boolean isSharedCache() {
+        return sharedCache;
+    }
+
+    /**
+     * 设置所有查看者是否共享同一个缓存结果。仅适用于结果不依赖于查看者的查询，
+     * 此时物品不再被视为依赖于查看者（见 {@link #isViewerDependent()}）。
+     * @param sharedCache 是否共享缓存
+     */
+    public void setSharedCache(boolean sharedCache) {
+        if (this.sharedCache != sharedCache) {
+            this.sharedCache = sharedCache;
+            cachedItems.clear();
+        }
     }
 
     /**
@@ -137,7 +282,7 @@ public class DynamicGuiItem extends GuiItem {
      * @return 当前缓存的物品
      */
     public GuiItem getCachedItem(HumanEntity who) {
-        CacheEntry cached = cachedItems.get(who.getUniqueId());
+        CacheEntry cached = getCacheEntry(who);
         if (cached == null) {
             cached = update(who);
         }
@@ -151,25 +296,104 @@ public class DynamicGuiItem extends GuiItem {
      * @return 被缓存的物品，如果没有被缓存则返回null
      */
     public GuiItem removeCachedItem(HumanEntity who) {
+        if (sharedCache) {
+            // 共享的条目仍被其他查看者使用
+            return getCachedItem(who);
+        }
         CacheEntry cached = cachedItems.remove(who.getUniqueId());
         return cached != null ? cached.getItem() : null;
     }
 
+    /**
+     * 从缓存中删除指定玩家的缓存条目。共享的条目不会被删除。
+     * @param viewerId 玩家的 UUID
+     */
+    void removeCachedItem(UUID viewerId) {
+        if (!sharedCache) {
+            cachedItems.remove(viewerId);
+        }
+    }
+
+    /**
+     * 删除所有缓存条目，包括共享的条目
+     */
+    void clearCachedItems() {
+        cachedItems.clear();
+    }
+
+    /**
+     * 获取指定玩家的缓存条目
+     * @param who 要获取缓存条目的玩家
+     * @return 缓存条目，如果没有被缓存则返回null
+     */
+    protected CacheEntry getCacheEntry(HumanEntity who) {
+        return cachedItems.get(getCacheKey(who));
+    }
+
+    /**
+     * 设置指定玩家的缓存条目
+     * @param who   玩家
+     * @param entry 新的缓存条目
+     */
+    protected void putCacheEntry(HumanEntity who, CacheEntry entry) {
+        CacheEntry previous = cachedItems.put(getCacheKey(who), entry);
+        evictOverflow();
+        // 只有可能占用多页的物品才会影响页面数量
+        if (gui != null && (hasPages(entry.getItem()) || previous != null && hasPages(previous.getItem()))) {
+            gui.invalidatePageAmounts();
+        }
+    }
+
+    private static boolean hasPages(GuiItem item) {
+        return item instanceof GuiItemGroup || item instanceof GuiStorageItem || item instanceof DynamicGuiItem;
+    }
+
+    /**
+     * 仅当指定玩家当前的缓存条目仍为 <code>expected</code> 时才替换它
+     * @param who       玩家
+     * @param expected  预期的当前缓存条目
+     * @param entry     新的缓存条目
+     * @return 如果已替换，则返回 <code>true</code>；如果缓存已被更新或删除，则返回 <code>false</code>
+     */
+    protected boolean replaceCacheEntry(HumanEntity who, CacheEntry expected, CacheEntry entry) {
+        return cachedItems.replace(getCacheKey(who), expected, entry);
+    }
+
+    private UUID getCacheKey(HumanEntity who) {
+        return sharedCache ? SHARED_KEY : who.getUniqueId();
+    }
+
+    private void evictOverflow() {
+        int max = maxCacheSize;
+        while (max > 0 && cachedItems.size() > max) {
+            Map.Entry<UUID, CacheEntry> oldest = null;
+            for (Map.Entry<UUID, CacheEntry> entry : cachedItems.entrySet()) {
+                if (oldest == null || entry.getValue().getCreated() < oldest.getValue().getCreated()) {
+                    oldest = entry;
+                }
+            }
+            if (oldest == null || !cachedItems.remove(oldest.getKey(), oldest.getValue())) {
+                break;
+            }
+        }
+    }
+
     /**
      * 获取指定玩家上次缓存此物品的时间戳
      * @param who 要获取上次缓存时间的玩家
      * @return 上次缓存的时间戳，如果未缓存则返回-1
      */
     public long getLastCached(HumanEntity who) {
-        CacheEntry cached = cachedItems.get(who.getUniqueId());
+        CacheEntry cached = getCacheEntry(who);
         return cached != null ? cached.getCreated() : -1;
     }
 
     public class CacheEntry {
         private final GuiItem item;
         private final long created = System.currentTimeMillis();
+        private volatile boolean refreshing = false;
 
-        CacheEntry(GuiItem item) {
+        protected CacheEntry(GuiItem item) {
             this.item = item;
         }
 
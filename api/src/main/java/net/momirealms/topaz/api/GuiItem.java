@@ -5,14 +5,17 @@ import org.bukkit.event.inventory.ClickType;
 import org.bukkit.event.inventory.InventoryInteractEvent;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.Arrays;
+
 /**
  * 在GUI中表示一个物品
  */
 public abstract class GuiItem {
     private final char slotChar;
     private Action action;
-    protected int[] slots = new int[0];
-    protected TopazUI gui;
+    protected volatile int[] slots = new int[0];
+    protected volatile TopazUI gui;
+    private volatile SlotTable slotTable = null;
 
     /**
      * 在GUI中表示一个物品
@@ -87,6 +90,8 @@ public abstract class GuiItem {
      * @param slots 该物品所显示的槽位的ID数组
      */
     public void setSlots(int[] slots) {
+        // 查找表在第一次查找时才构建，未被显示的物品无需分配
+        this.slotTable = null;
         this.slots = slots;
     }
 
@@ -109,12 +114,81 @@ public abstract class GuiItem {
      * @return 该ID在槽位列表中的索引，如果不存在则返回-1
      */
     public int getSlotIndex(int slot, int pageNumber) {
-        for (int i = 0; i < slots.length; i++) {
-            if (slots[i] == slot) {
-                return i + slots.length * pageNumber;
+        int[] slots = this.slots;
+        int index = getSlotTable(slots).indexOf(slot);
+        return index > -1 ? index + slots.length * pageNumber : -1;
+    }
+
+    /**
+     * 获取槽位数组对应的查找表。第一次查找或槽位数组已被替换时构建查找表。
+     */
+    private SlotTable getSlotTable(int[] slots) {
+        SlotTable table = slotTable;
+        if (table == null || table.slots != slots) {
+            table = new SlotTable(slots);
+            slotTable = table;
+        }
+        return table;
+    }
+
+    /**
+     * 从槽位ID到其在槽位列表中索引的查找表
+     */
+    private static final class SlotTable {
+        private final int[] slots;
+        private final int[] indices;
+
+        private SlotTable(int[] slots) {
+            this.slots = slots;
+            int max = -1;
+            for (int slot : slots) {
+                max = Math.max(max, slot);
+            }
+            this.indices = new int[max + 1];
+            Arrays.fill(indices, -1);
+            for (int i = 0; i < slots.length; i++) {
+                int slot = slots[i];
+                if (slot >= 0 && indices[slot] == -1) {
+                    indices[slot] = i;
+                }
             }
         }
-        return -1;
+
+        private int indexOf(int slot) {
+            return slot >= 0 && slot < indices.length ? indices[slot] : -1;
+        }
+    }
+
+    /**
+     * 检查该物品显示的内容是否取决于查看它的玩家。
+     * 包含此类物品的GUI不能在所有查看者之间共享一个背包。
+     *
+     * @return 如果不同的玩家可能看到不同的内容，则返回<code>true</code>
+     */
+    public boolean isViewerDependent() {
+        return false;
+    }
+
+    /**
+     * 将该物品标记为脏，显示该物品的槽位将在下一刻重新渲染，而无需重绘整个GUI。
+     * 如果该物品尚未添加到GUI中，则不执行任何操作。
+     */
+    public void markDirty() {
+        if (gui != null) {
+            gui.markDirty(this);
+        }
+    }
+
+    /**
+     * 将该物品标记为脏，但只为一个查看者重新渲染显示该物品的槽位。
+     * 适用于只有该查看者看到的内容发生了变化的情况。如果该物品尚未添加到GUI中，则不执行任何操作。
+     *
+     * @param who 要重新渲染的查看者
+     */
+    public void markDirty(HumanEntity who) {
+        if (gui != null) {
+            gui.markDirty(this, who);
+        }
     }
 
     /**
@@ -155,6 +229,7 @@ public abstract class GuiItem {
         private ItemStack cursor;
         private final GuiItem item;
         private final InventoryInteractEvent event;
+        private boolean redrawn = false;
 
         public Click(TopazUI gui, int slot, ClickType clickType, ItemStack cursor, GuiItem item, InventoryInteractEvent event) {
             this.gui = gui;
@@ -231,5 +306,16 @@ public abstract class GuiItem {
         public TopazUI getGui() {
             return gui;
         }
+
+        /**
+         * 标记点击的动作已经自行请求重新渲染受影响的槽位，GUI 无需为其他查看者重绘整个背包
+         */
+        void setRedrawn() {
+            this.redrawn = true;
+        }
+
+        boolean isRedrawn() {
+            return redrawn;
+        }
     }
 }
\ No newline at end of file
@@ -4,17 +4,27 @@ import org.bukkit.entity.HumanEntity;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * 表示多个物品的组。默认情况下，将使用左对齐。
+ * 物品列表以不可变快照的形式发布，修改时会创建新的快照，
+ * 因此可以在其他线程修改物品的同时安全地进行绘制。
+ * 需要一次修改大量物品时，使用 {@link #addAll(Collection)}、{@link #replaceAll(Collection)}
+ * 或 {@link #edit(Consumer)}，它们只发布一个快照并只触发一次重绘。
  */
 public class GuiItemGroup extends GuiItem {
-    private List<GuiItem> items = new ArrayList<>();
+    private volatile List<GuiItem> items = Collections.emptyList();
     private GuiItem filler = null;
     private Alignment alignment = Alignment.LEFT;
+    private volatile RowTable rowTable = null;
+    private volatile long structureVersion = 0;
 
     /**
      * 创建一个物品组
@@ -25,28 +35,38 @@ public class GuiItemGroup extends GuiItem {
     public GuiItemGroup(char slotChar, GuiItem... items) {
         super(slotChar, null);
         setAction(click -> {
-            GuiItem guiItem = getItem(click.getSlot(), click.getGui().getPageNumber(click.getWhoClicked()));
+            GuiItem guiItem = getItem(click.getWhoClicked(), click.getSlot(), click.getGui().getPageNumber(click.getWhoClicked()));
             if (guiItem != null && guiItem.getAction(click.getRawEvent().getWhoClicked()) != null) {
                 return guiItem.getAction(click.getWhoClicked()).onClick(click);
             }
             return true;
         });
-        Collections.addAll(this.items, items);
+        this.items = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(items)));
     }
 
     @Override
     public ItemStack getItem(HumanEntity who, int slot) {
-        GuiItem guiItem = getItem(slot, gui.getPageNumber(who));
+        GuiItem guiItem = getItem(who, slot, gui.getPageNumber(who));
         if (guiItem != null) {
             return guiItem.getItem(who, slot);
         }
         return null;
     }
 
+    @Override
+    public boolean isViewerDependent() {
+        for (GuiItem guiItem : getItems()) {
+            if (guiItem != null && guiItem.isViewerDependent()) {
+                return true;
+            }
+        }
+        return filler != null && filler.isViewerDependent();
+    }
+
     @Override
     public void setGui(TopazUI gui) {
         super.setGui(gui);
-        for (GuiItem guiItem : items) {
+        for (GuiItem guiItem : getItems()) {
             if (guiItem != null) {
                 guiItem.setGui(gui);
             }
@@ -59,7 +79,7 @@ public class GuiItemGroup extends GuiItem {
     @Override
     public void setSlots(int[] slots) {
         super.setSlots(slots);
-        for (GuiItem guiItem : items) {
+        for (GuiItem guiItem : getItems()) {
             if (guiItem != null) {
                 guiItem.setSlots(slots);
             }
@@ -72,11 +92,7 @@ public class GuiItemGroup extends GuiItem {
      * @param guiItem 要添加的物品
      */
     public void addItems(GuiItem guiItem) {
-        items.add(guiItem);
-        if (guiItem != null) {
-            guiItem.setGui(gui);
-            guiItem.setSlots(slots);
-        }
+        addItems(Collections.singletonList(guiItem));
     }
 
     /**
@@ -85,20 +101,28 @@ public class GuiItemGroup extends GuiItem {
      * @param items 要添加的物品
      */
     public void addItems(GuiItem... items) {
-        for (GuiItem guiItem : items) {
-            addItems(guiItem);
-        }
+        addItems(Arrays.asList(items));
     }
 
     /**
-     * 向该组添加物品
+     * 向该组添加物品。所有物品会在一个新的快照中一起发布。
      *
      * @param items 要添加的物品
      */
     public void addItems(Collection<GuiItem> items) {
-        for (GuiItem item : items) {
-            addItems(item);
+        for (GuiItem guiItem : items) {
+            if (guiItem != null) {
+                guiItem.setGui(gui);
+                guiItem.setSlots(slots);
+            }
+        }
+        synchronized (this) {
+            List<GuiItem> newItems = new ArrayList<>(this.items.size() + items.size());
+            newItems.addAll(this.items);
+            newItems.addAll(items);
+            this.items = Collections.unmodifiableList(newItems);
         }
+        invalidatePageAmounts();
     }
 
     /**
@@ -119,32 +143,67 @@ public class GuiItemGroup extends GuiItem {
      * @return 该槽位上的 GuiItem，如果不存在则返回 <code>null</code>
      */
     public GuiItem getItem(int slot, int pageNumber) {
-        if (items.isEmpty()) {
+        return getItem(null, slot, pageNumber);
+    }
+
+    /**
+     * 获取特定玩家在特定页面的特定槽位上看到的物品
+     *
+     * @param who        查看物品的玩家，如果为 <code>null</code> 则使用组中的所有物品
+     * @param slot       要获取物品的槽位
+     * @param pageNumber GUI 所在的页面编号
+     * @return 该槽位上的 GuiItem，如果不存在则返回 <code>null</code>
+     */
+    public GuiItem getItem(HumanEntity who, int slot, int pageNumber) {
+        int size = who != null ? size(who) : size();
+        if (size == 0) {
             return null;
         }
-        int index = getSlotIndex(slot, slots.length < items.size() ? pageNumber : 0);
+        int index = getSlotIndex(slot, slots.length < size ? pageNumber : 0);
         if (index > -1) {
             if (alignment == Alignment.LEFT) {
-                if (index < items.size()) {
-                    return items.get(index);
+                if (index < size) {
+                    return getItemAt(who, index);
                 }
             } else {
                 int lineWidth = getLineWidth(slot);
                 int linePosition = getLinePosition(slot);
-                if (items.size() - index > lineWidth - linePosition) {
-                    return items.get(index);
+                if (size - index > lineWidth - linePosition) {
+                    return getItemAt(who, index);
                 }
-                int rest = items.size() - (index - linePosition);
+                int rest = size - (index - linePosition);
                 int blankBefore = alignment == Alignment.CENTER ? (lineWidth - rest) / 2 : lineWidth - rest;
-                if (linePosition < blankBefore || index - blankBefore >= items.size()) {
+                if (linePosition < blankBefore || index - blankBefore >= size) {
                     return filler;
                 }
-                return items.get(index - blankBefore);
+                return getItemAt(who, index - blankBefore);
             }
         }
         return filler;
     }
 
+    /**
+     * 获取组中特定索引处的物品。子类可以覆盖此方法以从其他数据源获取物品。
+     *
+     * @param index 物品的索引
+     * @return 该索引处的物品，如果不存在则返回 <code>null</code>
+     */
+    protected GuiItem getItemAt(int index) {
+        List<GuiItem> items = this.items;
+        return index >= 0 && index < items.size() ? items.get(index) : null;
+    }
+
+    /**
+     * 获取特定玩家看到的组中特定索引处的物品。子类可以覆盖此方法为每个玩家提供不同的内容。
+     *
+     * @param who   查看物品的玩家
+     * @param index 物品的索引
+     * @return 该索引处的物品，如果不存在则返回 <code>null</code>
+     */
+    protected GuiItem getItemAt(HumanEntity who, int index) {
+        return getItemAt(index);
+    }
+
 
     /**
      * 获取槽位所在行的宽度
@@ -153,16 +212,7 @@ public class GuiItemGroup extends GuiItem {
      * @return 该行在此组的 GUI 设置中的宽度
      */
     private int getLineWidth(int slot) {
-        int width = gui.getWidth();
-        int row = slot / width;
-
-        int amount = 0;
-        for (int s : slots) {
-            if (s >= row * width && s < (row + 1) * width) {
-                amount++;
-            }
-        }
-        return amount;
+        return getRowTable().lineWidth(slot);
     }
 
     /**
@@ -172,36 +222,151 @@ public class GuiItemGroup extends GuiItem {
      * @return 行位置，如果不在其行中则返回 -1
      */
     private int getLinePosition(int slot) {
+        return getRowTable().linePosition(slot);
+    }
+
+    /**
+     * 获取当前槽位和 GUI 宽度对应的行查找表，槽位或宽度改变后会重新构建
+     */
+    private RowTable getRowTable() {
+        int[] slots = this.slots;
         int width = gui.getWidth();
-        int row = slot / width;
-
-        int position = -1;
-        for (int s : slots) {
-            if (s >= row * width && s < (row + 1) * width) {
-                position++;
-                if (s == slot) {
-                    return position;
+        RowTable table = rowTable;
+        if (table == null || table.slots != slots || table.width != width) {
+            table = new RowTable(slots, width);
+            rowTable = table;
+        }
+        return table;
+    }
+
+    /**
+     * 每个槽位所在行的宽度和在行中的位置，只在布局改变时计算一次
+     */
+    static final class RowTable {
+        private final int[] slots;
+        private final int width;
+        private final int[] lineWidths;
+        private final int[] linePositions;
+
+        RowTable(int[] slots, int width) {
+            this.slots = slots;
+            this.width = width;
+            int max = -1;
+            for (int slot : slots) {
+                max = Math.max(max, slot);
+            }
+            int rows = max / width + 1;
+            int[] rowCounts = new int[rows];
+            this.lineWidths = new int[max + 1];
+            this.linePositions = new int[max + 1];
+            Arrays.fill(linePositions, -1);
+            for (int slot : slots) {
+                if (slot >= 0 && linePositions[slot] == -1) {
+                    linePositions[slot] = rowCounts[slot / width]++;
                 }
             }
+            for (int slot : slots) {
+                if (slot >= 0) {
+                    lineWidths[slot] = rowCounts[slot / width];
+                }
+            }
+        }
+
+        int lineWidth(int slot) {
+            return lineWidths[slot];
+        }
+
+        int linePosition(int slot) {
+            return linePositions[slot];
         }
-        return position;
     }
 
     /**
-     * 获取该组的所有物品。此列表是不可修改的，可以使用 {@link #addItems(GuiItem)}
+     * 获取该组的所有物品。此列表是不可修改的快照，可以使用 {@link #addItems(GuiItem)}
      * 和 {@link #clearItems()} 方法来修改该组中的物品。
      *
      * @return 该组中所有物品的不可修改列表
      */
     public List<GuiItem> getItems() {
-        return Collections.unmodifiableList(items);
+        return items;
     }
 
     /**
      * 清除该组中的所有物品
      */
     public void clearItems() {
-        items.clear();
+        synchronized (this) {
+            items = Collections.emptyList();
+            structureVersion++;
+        }
+        invalidatePageAmounts();
+    }
+
+    /**
+     * 向该组添加物品，并在下一刻为所有查看者重新绘制 GUI 一次
+     *
+     * @param items 要添加的物品
+     */
+    public void addAll(Collection<GuiItem> items) {
+        addItems(items);
+        requestDraw();
+    }
+
+    /**
+     * 将该组中的所有物品替换为新的物品，并在下一刻为所有查看者重新绘制 GUI 一次。
+     * 绘制中的读取者会继续使用旧的快照，不会看到部分替换的内容。
+     *
+     * @param items 新的物品
+     */
+    public void replaceAll(Collection<GuiItem> items) {
+        edit(list -> {
+            list.clear();
+            list.addAll(items);
+        });
+    }
+
+    /**
+     * 在当前物品的可修改副本上批量修改该组，所有修改会在一个新的快照中一起发布，
+     * 并在下一刻为所有查看者重新绘制 GUI 一次。修改函数在锁内运行，不应执行耗时操作。
+     *
+     * @param editor 修改物品列表的函数
+     */
+    public void edit(Consumer<List<GuiItem>> editor) {
+        synchronized (this) {
+            List<GuiItem> previous = this.items;
+            List<GuiItem> newItems = new ArrayList<>(previous);
+            editor.accept(newItems);
+            // 只有新加入的物品需要设置 GUI 和槽位，之前快照中的物品已经设置过
+            Set<GuiItem> existing = Collections.newSetFromMap(new IdentityHashMap<>(previous.size() * 2));
+            existing.addAll(previous);
+            for (GuiItem guiItem : newItems) {
+                if (guiItem != null && !existing.contains(guiItem)) {
+                    guiItem.setGui(gui);
+                    guiItem.setSlots(slots);
+                }
+            }
+            this.items = Collections.unmodifiableList(newItems);
+            structureVersion++;
+        }
+        invalidatePageAmounts();
+        requestDraw();
+    }
+
+    private void requestDraw() {
+        TopazUI gui = this.gui;
+        if (gui != null) {
+            gui.requestDraw();
+        }
+    }
+
+    /**
+     * 使 GUI 缓存的页面数量失效。组的大小改变后应调用此方法。
+     */
+    protected void invalidatePageAmounts() {
+        TopazUI gui = this.gui;
+        if (gui != null) {
+            gui.invalidatePageAmounts();
+        }
     }
 
     /**
@@ -245,6 +410,26 @@ public class GuiItemGroup extends GuiItem {
         return items.size();
     }
 
+    /**
+     * 获取特定玩家看到的该组的大小
+     *
+     * @param who 查看该组的玩家
+     * @return 该玩家看到的物品数量
+     */
+    public int size(HumanEntity who) {
+        return size();
+    }
+
+    /**
+     * 获取该组的结构版本。只添加物品时版本不变，其他修改（例如清除）会使版本增加，
+     * 因此在版本不变时，新的物品列表总是以旧的物品列表开头。
+     *
+     * @return 结构版本
+     */
+    long getStructureVersion() {
+        return structureVersion;
+    }
+
     /**
      * 设置该组中物品的对齐方式
      *
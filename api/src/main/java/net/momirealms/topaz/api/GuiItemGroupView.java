@@ -0,0 +1,494 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 在另一个物品组之上的视图，可以排序、搜索和筛选组中的物品，而无需重新创建物品组。
+ * 每个玩家拥有自己的搜索和筛选状态，分页基于该玩家看到的结果进行。
+ * <p>
+ * 视图维护一个按搜索键排序的索引，前缀搜索通过二分查找完成，包含搜索则按顺序扫描所有键。
+ * 向源物品组添加物品时，索引和排序会增量合并新物品；其他修改会使索引完全重建。
+ * 源物品组应为普通的 {@link GuiItemGroup}，其内容需全部位于内存中。
+ */
+public class GuiItemGroupView extends GuiItemGroup {
+    private final GuiItemGroup source;
+    private final Function<GuiItem, String> keyFunction;
+    private volatile Comparator<GuiItem> comparator = null;
+    private volatile Index index = null;
+    private final Map<UUID, ViewState> states = new ConcurrentHashMap<>();
+
+    /**
+     * 创建一个物品组视图
+     *
+     * @param slotChar    要替换的 GUI 设置字符串中的字符
+     * @param source      源物品组，不应添加到 GUI 中
+     * @param keyFunction 获取物品搜索键（例如名称）的函数
+     */
+    public GuiItemGroupView(char slotChar, GuiItemGroup source, Function<GuiItem, String> keyFunction) {
+        super(slotChar);
+        this.source = source;
+        this.keyFunction = keyFunction;
+    }
+
+    /**
+     * 设置玩家的搜索条件。玩家将回到第一页。
+     *
+     * @param who   玩家
+     * @param query 搜索内容，不区分大小写；为空或 <code>null</code> 时不进行搜索
+     * @param mode  搜索方式
+     */
+    public void setQuery(HumanEntity who, String query, SearchMode mode) {
+        String normalized = query == null || query.isEmpty() ? null : query.toLowerCase(Locale.ROOT);
+        updateState(who, state -> new ViewState(normalized, mode, state.filter));
+    }
+
+    /**
+     * 使用前缀搜索设置玩家的搜索条件。玩家将回到第一页。
+     *
+     * @param who   玩家
+     * @param query 搜索内容，不区分大小写；为空或 <code>null</code> 时不进行搜索
+     */
+    public void setQuery(HumanEntity who, String query) {
+        setQuery(who, query, SearchMode.PREFIX);
+    }
+
+    /**
+     * 设置玩家的筛选条件。玩家将回到第一页。
+     *
+     * @param who    玩家
+     * @param filter 只显示满足条件的物品，为 <code>null</code> 时不进行筛选
+     */
+    public void setFilter(HumanEntity who, Predicate<GuiItem> filter) {
+        updateState(who, state -> new ViewState(state.query, state.mode, filter));
+    }
+
+    /**
+     * 清除玩家的搜索和筛选条件
+     *
+     * @param who 玩家
+     */
+    public void removeViewer(HumanEntity who) {
+        removeViewer(who.getUniqueId());
+    }
+
+    /**
+     * 清除玩家的搜索和筛选条件
+     *
+     * @param viewerId 玩家的 UUID
+     */
+    void removeViewer(UUID viewerId) {
+        if (states.remove(viewerId) != null) {
+            invalidatePageAmounts();
+        }
+    }
+
+    /**
+     * 清除所有玩家的搜索和筛选条件
+     */
+    void clearViewers() {
+        if (!states.isEmpty()) {
+            states.clear();
+            invalidatePageAmounts();
+        }
+    }
+
+    private void updateState(HumanEntity who, Function<ViewState, ViewState> update) {
+        states.compute(who.getUniqueId(), (id, state) -> {
+            ViewState updated = update.apply(state != null ? state : ViewState.NONE);
+            return updated.isEmpty() ? null : updated;
+        });
+        invalidatePageAmounts();
+        TopazUI gui = this.gui;
+        if (gui != null) {
+            gui.runTaskOrNow(who, () -> gui.setPageNumber(who, 0));
+        }
+    }
+
+    /**
+     * 设置所有玩家看到的物品顺序
+     *
+     * @param comparator 物品的排序方式，为 <code>null</code> 时使用源物品组中的顺序
+     */
+    public void setComparator(Comparator<GuiItem> comparator) {
+        synchronized (this) {
+            this.comparator = comparator;
+            this.index = null;
+        }
+        TopazUI gui = this.gui;
+        if (gui != null) {
+            gui.requestDraw();
+        }
+    }
+
+    /**
+     * 获取物品的排序方式
+     *
+     * @return 排序方式，如果使用源物品组中的顺序则返回 <code>null</code>
+     */
+    public Comparator<GuiItem> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * 获取源物品组
+     *
+     * @return 源物品组
+     */
+    public GuiItemGroup getSource() {
+        return source;
+    }
+
+    @Override
+    public int size() {
+        return getIndex().ordered.length;
+    }
+
+    @Override
+    public int size(HumanEntity who) {
+        int[] hits = getHits(who);
+        return hits != null ? hits.length : size();
+    }
+
+    @Override
+    protected GuiItem getItemAt(int index) {
+        GuiItem[] ordered = getIndex().ordered;
+        return index >= 0 && index < ordered.length ? ordered[index] : null;
+    }
+
+    @Override
+    protected GuiItem getItemAt(HumanEntity who, int index) {
+        if (who == null) {
+            // 没有查看者时使用未经搜索和筛选的排序结果
+            return getItemAt(index);
+        }
+        ViewState state = states.get(who.getUniqueId());
+        if (state == null) {
+            return getItemAt(index);
+        }
+        Result result = state.getResult(getIndex());
+        return index >= 0 && index < result.hits.length ? result.index.ordered[result.hits[index]] : null;
+    }
+
+    private int[] getHits(HumanEntity who) {
+        if (who == null) {
+            return null;
+        }
+        ViewState state = states.get(who.getUniqueId());
+        return state != null ? state.getResult(getIndex()).hits : null;
+    }
+
+    /**
+     * 获取源物品组中的所有物品
+     *
+     * @return 源物品组中所有物品的不可修改列表
+     */
+    @Override
+    public List<GuiItem> getItems() {
+        return source != null ? source.getItems() : super.getItems();
+    }
+
+    /**
+     * 不同的玩家可能看到不同的搜索结果
+     *
+     * @return <code>true</code>
+     */
+    @Override
+    public boolean isViewerDependent() {
+        return true;
+    }
+
+    @Override
+    public void setGui(TopazUI gui) {
+        super.setGui(gui);
+        if (source != null) {
+            source.setGui(gui);
+        }
+    }
+
+    @Override
+    public void setSlots(int[] slots) {
+        super.setSlots(slots);
+        if (source != null) {
+            source.setSlots(slots);
+        }
+    }
+
+    /**
+     * 向源物品组添加物品
+     *
+     * @param items 要添加的物品
+     */
+    @Override
+    public void addItems(Collection<GuiItem> items) {
+        source.addItems(items);
+    }
+
+    /**
+     * 批量修改源物品组
+     *
+     * @param editor 修改物品列表的函数
+     */
+    @Override
+    public void edit(Consumer<List<GuiItem>> editor) {
+        source.edit(editor);
+    }
+
+    /**
+     * 清除源物品组中的所有物品
+     */
+    @Override
+    public void clearItems() {
+        source.clearItems();
+    }
+
+    /**
+     * 获取与源物品组当前内容对应的索引。只添加了物品时增量合并，否则重建。
+     */
+    private Index getIndex() {
+        Index current = index;
+        if (current != null && current.items == source.getItems()) {
+            return current;
+        }
+        synchronized (this) {
+            List<GuiItem> items = source.getItems();
+            long version = source.getStructureVersion();
+            current = index;
+            if (current != null && current.items == items) {
+                return current;
+            }
+            if (current != null && current.version == version && items.size() >= current.items.size()) {
+                current = current.append(items, keyFunction, comparator);
+            } else {
+                current = Index.build(items, version, keyFunction, comparator);
+            }
+            index = current;
+            return current;
+        }
+    }
+
+    /**
+     * 搜索方式
+     */
+    public enum SearchMode {
+        /**
+         * 搜索键以搜索内容开头，使用索引查找
+         */
+        PREFIX,
+        /**
+         * 搜索键包含搜索内容，需要扫描所有键
+         */
+        SUBSTRING
+    }
+
+    /**
+     * 源物品组某一时刻内容的不可变索引
+     */
+    private static final class Index {
+        private final List<GuiItem> items;
+        private final long version;
+        /** 按排序方式排列的物品 */
+        private final GuiItem[] ordered;
+        /** 与 ordered 对应的小写搜索键 */
+        private final String[] keys;
+        /** ordered 中的位置，按搜索键排序 */
+        private final int[] byKey;
+
+        private Index(List<GuiItem> items, long version, GuiItem[] ordered, String[] keys, int[] byKey) {
+            this.items = items;
+            this.version = version;
+            this.ordered = ordered;
+            this.keys = keys;
+            this.byKey = byKey;
+        }
+
+        private static Index build(List<GuiItem> items, long version, Function<GuiItem, String> keyFunction, Comparator<GuiItem> comparator) {
+            GuiItem[] ordered = nonNull(items, 0);
+            if (comparator != null) {
+                Arrays.sort(ordered, comparator);
+            }
+            String[] keys = keys(ordered, keyFunction);
+            return new Index(items, version, ordered, keys, sortByKey(keys));
+        }
+
+        /**
+         * 合并在此索引之后添加到源物品组的物品
+         */
+        private Index append(List<GuiItem> items, Function<GuiItem, String> keyFunction, Comparator<GuiItem> comparator) {
+            GuiItem[] added = nonNull(items, this.items.size());
+            if (comparator != null) {
+                Arrays.sort(added, comparator);
+            }
+            String[] addedKeys = keys(added, keyFunction);
+            int total = ordered.length + added.length;
+            GuiItem[] newOrdered = new GuiItem[total];
+            String[] newKeys = new String[total];
+            int[] oldPositions = new int[ordered.length];
+            int[] addedPositions = new int[added.length];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < total; k++) {
+                // 相等时旧物品在前，保持稳定排序
+                boolean takeOld = j >= added.length
+                        || i < ordered.length && (comparator == null || comparator.compare(ordered[i], added[j]) <= 0);
+                if (takeOld) {
+                    newOrdered[k] = ordered[i];
+                    newKeys[k] = keys[i];
+                    oldPositions[i++] = k;
+                } else {
+                    newOrdered[k] = added[j];
+                    newKeys[k] = addedKeys[j];
+                    addedPositions[j++] = k;
+                }
+            }
+            int[] addedByKey = sortByKey(addedKeys);
+            int[] newByKey = new int[total];
+            i = 0;
+            j = 0;
+            for (int k = 0; k < total; k++) {
+                if (j >= addedByKey.length || i < byKey.length && keys[byKey[i]].compareTo(addedKeys[addedByKey[j]]) <= 0) {
+                    newByKey[k] = oldPositions[byKey[i++]];
+                } else {
+                    newByKey[k] = addedPositions[addedByKey[j++]];
+                }
+            }
+            return new Index(items, version, newOrdered, newKeys, newByKey);
+        }
+
+        private static GuiItem[] nonNull(List<GuiItem> items, int from) {
+            List<GuiItem> result = new ArrayList<>(items.size() - from);
+            for (int i = from; i < items.size(); i++) {
+                GuiItem item = items.get(i);
+                if (item != null) {
+                    result.add(item);
+                }
+            }
+            return result.toArray(new GuiItem[0]);
+        }
+
+        private static String[] keys(GuiItem[] items, Function<GuiItem, String> keyFunction) {
+            String[] keys = new String[items.length];
+            for (int i = 0; i < items.length; i++) {
+                String key = keyFunction.apply(items[i]);
+                keys[i] = key != null ? key.toLowerCase(Locale.ROOT) : "";
+            }
+            return keys;
+        }
+
+        private static int[] sortByKey(String[] keys) {
+            Integer[] positions = new Integer[keys.length];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = i;
+            }
+            Arrays.sort(positions, Comparator.comparing(p -> keys[p]));
+            int[] result = new int[positions.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = positions[i];
+            }
+            return result;
+        }
+
+        /**
+         * 查找搜索键以 <code>prefix</code> 开头的物品
+         * @return 物品在 ordered 中的位置，按升序排列
+         */
+        private int[] findPrefix(String prefix) {
+            int low = 0;
+            int high = byKey.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[byKey[mid]].compareTo(prefix) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int end = low;
+            while (end < byKey.length && keys[byKey[end]].startsWith(prefix)) {
+                end++;
+            }
+            int[] hits = Arrays.copyOfRange(byKey, low, end);
+            Arrays.sort(hits);
+            return hits;
+        }
+    }
+
+    /**
+     * 一个玩家的搜索和筛选条件。计算结果与索引一起缓存，索引改变后重新计算。
+     */
+    private static final class ViewState {
+        private static final ViewState NONE = new ViewState(null, SearchMode.PREFIX, null);
+
+        private final String query;
+        private final SearchMode mode;
+        private final Predicate<GuiItem> filter;
+        private volatile Result result = null;
+
+        private ViewState(String query, SearchMode mode, Predicate<GuiItem> filter) {
+            this.query = query;
+            this.mode = mode != null ? mode : SearchMode.PREFIX;
+            this.filter = filter;
+        }
+
+        private boolean isEmpty() {
+            return query == null && filter == null;
+        }
+
+        private Result getResult(Index index) {
+            Result current = result;
+            if (current != null && current.index == index) {
+                return current;
+            }
+            int[] candidates;
+            if (query != null && mode == SearchMode.PREFIX) {
+                candidates = index.findPrefix(query);
+            } else {
+                candidates = new int[index.ordered.length];
+                int count = 0;
+                for (int i = 0; i < index.ordered.length; i++) {
+                    if (query == null || index.keys[i].contains(query)) {
+                        candidates[count++] = i;
+                    }
+                }
+                candidates = Arrays.copyOf(candidates, count);
+            }
+            if (filter != null) {
+                int count = 0;
+                for (int position : candidates) {
+                    if (filter.test(index.ordered[position])) {
+                        candidates[count++] = position;
+                    }
+                }
+                candidates = Arrays.copyOf(candidates, count);
+            }
+            current = new Result(index, candidates);
+            result = current;
+            return current;
+        }
+    }
+
+    /**
+     * 一个玩家的搜索结果
+     */
+    private static final class Result {
+        private final Index index;
+        private final int[] hits;
+
+        private Result(Index index, int[] hits) {
+            this.index = index;
+            this.hits = hits;
+        }
+    }
+}
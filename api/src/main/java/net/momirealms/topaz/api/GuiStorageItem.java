@@ -7,7 +7,10 @@ import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.BitSet;
+import java.util.Map;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 /**
  * 用于访问{@link Inventory}的物品。通过搜索物品所在的整个GUI，并获取字符组中的位置号来选择存储库中的槽位。
@@ -19,6 +22,7 @@ public class GuiStorageItem extends GuiItem {
     private final int invSlot;
     private Runnable applyStorage;
     private Function<ValidatorInfo, Boolean> itemValidator;
+    private volatile IntConsumer storageListener;
 
     /**
      * 用于访问{@link Inventory}的物品。
@@ -78,28 +82,9 @@ public class GuiStorageItem extends GuiItem {
                 case CLONE_STACK:
                     return false;
                 case MOVE_TO_OTHER_INVENTORY:
-                    if (event.getRawSlot() < click.getRawEvent().getView().getTopInventory().getSize()) {
-                        // 从存储中移动
-
-                        // 检查是否有空间（当前不支持更高级的检查）
-                        if (click.getRawEvent().getView().getBottomInventory().firstEmpty() == -1) {
-                            // 没有空槽位，取消
-                            return true;
-                        }
-                        movedItem = null;
-                    } else {
-                        // 移动到存储
-
-                        // 检查是否有空间（当前不支持更高级的检查）
-                        if (click.getRawEvent().getView().getTopInventory().firstEmpty() == -1) {
-                            // 没有空槽位，取消
-                            return true;
-                        }
-                        movedItem = event.getCurrentItem();
-                    }
-                    // 更新GUI以避免显示错误
-                    gui.runTask(gui::draw);
-                    break;
+                    // 手动转移物品，原版的转移可能会放入非存储槽位
+                    transfer(click, event);
+                    return true;
                 case HOTBAR_MOVE_AND_READD:
                 case HOTBAR_SWAP:
                     int button = event.getHotbarButton();
@@ -184,6 +169,98 @@ public class GuiStorageItem extends GuiItem {
     }
 
 
+    /**
+     * 处理 Shift+点击 的转移：先合并到已有的同类物品上，再放入空槽位。
+     * 移入存储时会使用此物品在当前页面上的所有槽位，并遵守物品验证器。
+     * 存储只会应用一次，之后只重新渲染被修改的槽位。
+     * @param click 点击
+     * @param event 点击事件
+     */
+    private void transfer(Click click, InventoryClickEvent event) {
+        HumanEntity who = click.getWhoClicked();
+        BitSet touched = new BitSet();
+        if (event.getRawSlot() < event.getView().getTopInventory().getSize()) {
+            // 从存储移到玩家背包
+            int index = getStorageSlot(who, click.getSlot());
+            ItemStack stack = index > -1 ? storage.getItem(index) : null;
+            if (isEmpty(stack)) {
+                return;
+            }
+            Map<Integer, ItemStack> leftover = event.getView().getBottomInventory().addItem(stack.clone());
+            ItemStack remaining = leftover.isEmpty() ? null : leftover.values().iterator().next();
+            if (remaining != null && remaining.getAmount() >= stack.getAmount()) {
+                return;
+            }
+            storage.setItem(index, remaining);
+            notifyStorageChange(index);
+            touched.set(click.getSlot());
+        } else {
+            // 从玩家背包移到存储
+            ItemStack stack = event.getCurrentItem();
+            if (isEmpty(stack)) {
+                return;
+            }
+            ItemStack remaining = stack.clone();
+            mergeIntoStorage(who, remaining, touched, true);
+            if (remaining.getAmount() > 0) {
+                mergeIntoStorage(who, remaining, touched, false);
+            }
+            if (touched.isEmpty()) {
+                return;
+            }
+            event.setCurrentItem(remaining.getAmount() > 0 ? remaining : null);
+        }
+        if (applyStorage != null) {
+            applyStorage.run();
+        }
+        for (int slot = touched.nextSetBit(0); slot >= 0; slot = touched.nextSetBit(slot + 1)) {
+            gui.markDirty(slot);
+        }
+        click.setRedrawn();
+    }
+
+    /**
+     * 将物品放入当前页面上的存储槽位中
+     * @param who       使用GUI的玩家
+     * @param remaining 要放入的物品，放入的数量会从中扣除
+     * @param touched   被修改的GUI槽位
+     * @param partial   <code>true</code>表示只合并到已有的同类物品上，<code>false</code>表示只放入空槽位
+     */
+    private void mergeIntoStorage(HumanEntity who, ItemStack remaining, BitSet touched, boolean partial) {
+        for (int slot : slots) {
+            int index = getStorageSlot(who, slot);
+            if (index < 0) {
+                continue;
+            }
+            ItemStack existing = storage.getItem(index);
+            if (isEmpty(existing) == partial || partial && !existing.isSimilar(remaining)) {
+                continue;
+            }
+            int current = partial ? existing.getAmount() : 0;
+            int max = Math.min(remaining.getMaxStackSize(), storage.getMaxStackSize());
+            int moved = Math.min(max - current, remaining.getAmount());
+            if (moved <= 0) {
+                continue;
+            }
+            ItemStack placed = remaining.clone();
+            placed.setAmount(current + moved);
+            if (!validateItem(slot, placed)) {
+                continue;
+            }
+            storage.setItem(index, placed);
+            notifyStorageChange(index);
+            remaining.setAmount(remaining.getAmount() - moved);
+            touched.set(slot);
+            if (remaining.getAmount() <= 0) {
+                return;
+            }
+        }
+    }
+
+    private static boolean isEmpty(ItemStack item) {
+        return item == null || item.getType() == Material.AIR || item.getAmount() <= 0;
+    }
+
     @Override
     public ItemStack getItem(HumanEntity who, int slot) {
         int index = getStorageSlot(who, slot);
@@ -270,12 +347,37 @@ public class GuiStorageItem extends GuiItem {
             return false;
         }
         storage.setItem(index, item);
+        notifyStorageChange(index);
         if (applyStorage != null) {
             applyStorage.run();
         }
         return true;
     }
 
+    private void notifyStorageChange(int index) {
+        IntConsumer listener = storageListener;
+        if (listener != null) {
+            listener.accept(index);
+        }
+    }
+
+    /**
+     * 获取存储槽位改变时的监听器
+     * @return 监听器，可能为null
+     */
+    public IntConsumer getStorageListener() {
+        return storageListener;
+    }
+
+    /**
+     * 设置存储槽位改变时的监听器。每当此物品修改存储中的一个槽位时，都会以该槽位在存储中的索引调用监听器，
+     * 可用于只持久化被修改的槽位。
+     * @param storageListener   监听器；如果不需要则可以为null
+     */
+    public void setStorageListener(IntConsumer storageListener) {
+        this.storageListener = storageListener;
+    }
+
     /**
      * 获取应用存储的操作
      * @return 应用存储的操作，可能为null
@@ -0,0 +1,175 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 不可变的 GUI 模板。行设置只会被解析一次，编译出背包类型、每个槽位的字符以及每个字符对应的槽位，
+ * 物品则以工厂的形式保存。使用模板创建 {@link TopazUI} 时不会再解析行设置或扫描槽位，
+ * 只会创建物品和每个 GUI 自己的状态。适合为每个玩家打开的相同菜单。
+ */
+public final class GuiTemplate {
+    private static final int[] ROW_WIDTHS = {3, 5, 9};
+    private static final InventoryType[] INVENTORY_TYPES = {
+            InventoryType.DISPENSER, // 3*3
+            InventoryType.HOPPER, // 5*1
+            InventoryType.CHEST // 9*x
+    };
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final char[] slots;
+    private final int width;
+    private final InventoryType inventoryType;
+    private final Map<Character, int[]> charSlots;
+    private final Map<Character, Supplier<? extends GuiItem>> itemFactories;
+
+    /**
+     * 编译行设置为一个没有物品的模板
+     * @param rows  如何设置行。每个物品都会被分配一个字符。
+     *              空/缺失的物品将被填充为填充器。
+     * @throws IllegalArgumentException 如果提供的行无法匹配到InventoryType，则抛出异常
+     */
+    public GuiTemplate(String... rows) {
+        int width = ROW_WIDTHS[0];
+        for (String row : rows) {
+            if (row.length() > width) {
+                width = row.length();
+            }
+        }
+        InventoryType inventoryType = null;
+        for (int i = 0; i < ROW_WIDTHS.length && i < INVENTORY_TYPES.length; i++) {
+            if (width < ROW_WIDTHS[i]) {
+                width = ROW_WIDTHS[i];
+            }
+            if (width == ROW_WIDTHS[i]) {
+                inventoryType = INVENTORY_TYPES[i];
+                break;
+            }
+        }
+        if (inventoryType == null) {
+            throw new IllegalArgumentException("Could not match row setup to an inventory type!");
+        }
+
+        char[] slots = new char[rows.length * width];
+        int index = 0;
+        for (String row : rows) {
+            int length = Math.min(row.length(), width);
+            // 较短的行居中，多出的空格放在右侧
+            int left = (width - length) / 2;
+            for (int i = 0; i < left; i++) {
+                slots[index++] = ' ';
+            }
+            row.getChars(0, length, slots, index);
+            index += length;
+            for (int i = left + length; i < width; i++) {
+                slots[index++] = ' ';
+            }
+        }
+
+        Map<Character, List<Integer>> slotLists = new HashMap<>();
+        for (int i = 0; i < slots.length; i++) {
+            slotLists.computeIfAbsent(slots[i], k -> new ArrayList<>()).add(i);
+        }
+        Map<Character, int[]> charSlots = new HashMap<>(slotLists.size() * 2);
+        for (Map.Entry<Character, List<Integer>> entry : slotLists.entrySet()) {
+            charSlots.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        this.slots = slots;
+        this.width = width;
+        this.inventoryType = inventoryType;
+        this.charSlots = charSlots;
+        this.itemFactories = Collections.emptyMap();
+    }
+
+    private GuiTemplate(GuiTemplate layout, Map<Character, Supplier<? extends GuiItem>> itemFactories) {
+        this.slots = layout.slots;
+        this.width = layout.width;
+        this.inventoryType = layout.inventoryType;
+        this.charSlots = layout.charSlots;
+        this.itemFactories = Collections.unmodifiableMap(itemFactories);
+    }
+
+    /**
+     * 创建一个添加了物品的新模板，布局与此模板共享。每个使用模板创建的 GUI 都会调用一次工厂。
+     * 工厂每次都必须返回一个新的、尚未添加到 GUI 中的物品，其槽位字符必须为 <code>slotChar</code>。
+     * @param slotChar  物品的槽位字符，已存在的物品将被替换
+     * @param factory   创建物品的工厂
+     * @return 新的模板
+     */
+    public GuiTemplate withItem(char slotChar, Supplier<? extends GuiItem> factory) {
+        Map<Character, Supplier<? extends GuiItem>> itemFactories = new LinkedHashMap<>(this.itemFactories);
+        itemFactories.put(slotChar, factory);
+        return new GuiTemplate(this, itemFactories);
+    }
+
+    /**
+     * 创建一个添加了 {@link StaticGuiItem} 的新模板。物品和文本会在所有创建的 GUI 之间共享，不应再修改它们。
+     * @param slotChar  根据GUI设置字符串指定物品位置的字符
+     * @param item      应该显示的物品
+     * @param action    当玩家点击此物品时要运行的{@link GuiItem.Action}
+     * @param text      要显示在此物品上的文本，占位符将自动替换
+     * @return 新的模板
+     */
+    public GuiTemplate withItem(char slotChar, ItemStack item, GuiItem.Action action, String... text) {
+        return withItem(slotChar, () -> new StaticGuiItem(slotChar, item, action, text));
+    }
+
+    /**
+     * 获取设置字符串中使用该字符的槽位。返回的数组在所有创建的 GUI 和物品之间共享，不应对其进行修改。
+     * @param slotChar  槽位字符
+     * @return 使用该字符的槽位，没有则返回空数组
+     */
+    int[] getSlots(char slotChar) {
+        int[] slots = charSlots.get(slotChar);
+        return slots != null ? slots : NO_SLOTS;
+    }
+
+    /**
+     * 获取每个槽位的字符。返回的数组是共享的，不应对其进行修改。
+     * @return 每个槽位的字符
+     */
+    char[] getSlotChars() {
+        return slots;
+    }
+
+    /**
+     * 获取此模板的宽度
+     * @return 每行的槽位数量
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 获取此模板对应的背包类型
+     * @return 背包类型
+     */
+    public InventoryType getInventoryType() {
+        return inventoryType;
+    }
+
+    /**
+     * 获取此模板的槽位数量
+     * @return 槽位数量
+     */
+    public int getSize() {
+        return slots.length;
+    }
+
+    /**
+     * 获取此模板的物品工厂
+     * @return 按添加顺序排列的槽位字符和对应的物品工厂
+     */
+    Map<Character, Supplier<? extends GuiItem>> getItemFactories() {
+        return itemFactories;
+    }
+}
@@ -0,0 +1,132 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 可重复使用的 GUI 背包池。背包按模板、大小、类型和标题分组，
+ * 关闭后被清空并放回池中，下次打开相同的 GUI 时直接取出，不需要重新创建背包。
+ * 只有持有者为 {@link TopazUI.Holder} 的背包可以放入池中。放回时持有者会与原来的 GUI 解除绑定，
+ * 使池中的背包不会阻止已关闭的 GUI 被回收；取出时再绑定到新的 GUI。
+ */
+final class InventoryPool {
+    private static final int MAX_PER_KEY = 16;
+
+    /** 按最近使用排序，池满时先丢弃最久未使用的键的背包 */
+    private final LinkedHashMap<Key, ArrayDeque<Inventory>> pool = new LinkedHashMap<>(16, 0.75f, true);
+    private int size = 0;
+    private int maxSize = 256;
+
+    /**
+     * 从池中取出一个背包，并将其持有者绑定到 GUI
+     * @param key   背包的键
+     * @param gui   使用该背包的 GUI
+     * @return 空闲的背包，如果没有则返回 <code>null</code>
+     */
+    synchronized Inventory acquire(Key key, TopazUI gui) {
+        ArrayDeque<Inventory> inventories = pool.get(key);
+        if (inventories == null) {
+            return null;
+        }
+        Inventory inventory;
+        while ((inventory = inventories.pollFirst()) != null) {
+            size--;
+            // 仍被查看的背包不能交给其他玩家，直接丢弃
+            if (inventory.getViewers().isEmpty() && inventory.getHolder() instanceof TopazUI.Holder) {
+                break;
+            }
+        }
+        if (inventories.isEmpty()) {
+            pool.remove(key);
+        }
+        if (inventory != null) {
+            ((TopazUI.Holder) inventory.getHolder()).setGui(gui);
+        }
+        return inventory;
+    }
+
+    /**
+     * 将已清空的背包放回池中
+     * @param key       背包的键
+     * @param inventory 要放回的背包
+     */
+    synchronized void release(Key key, Inventory inventory) {
+        InventoryHolder holder = inventory.getHolder();
+        if (!(holder instanceof TopazUI.Holder)) {
+            return;
+        }
+        // 不再引用原来的 GUI，即使背包没有被放入池中
+        ((TopazUI.Holder) holder).setGui(null);
+        if (maxSize <= 0) {
+            return;
+        }
+        ArrayDeque<Inventory> inventories = pool.computeIfAbsent(key, k -> new ArrayDeque<>());
+        if (inventories.size() >= MAX_PER_KEY) {
+            return;
+        }
+        inventories.addFirst(inventory);
+        size++;
+        trim();
+    }
+
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        trim();
+    }
+
+    private void trim() {
+        Iterator<ArrayDeque<Inventory>> it = pool.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            ArrayDeque<Inventory> eldest = it.next();
+            size -= eldest.size();
+            it.remove();
+        }
+    }
+
+    /**
+     * 池中背包的键：模板（按引用比较）、大小、类型和替换占位符后的标题
+     */
+    static final class Key {
+        private final GuiTemplate template;
+        private final int size;
+        private final InventoryType type;
+        private final String title;
+
+        Key(GuiTemplate template, int size, InventoryType type, String title) {
+            this.template = template;
+            this.size = size;
+            this.type = type;
+            this.title = title;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return template == other.template && size == other.size && type == other.type
+                    && (title != null ? title.equals(other.title) : other.title == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(template);
+            hash = 31 * hash + size;
+            hash = 31 * hash + (type != null ? type.hashCode() : 0);
+            return 31 * hash + (title != null ? title.hashCode() : 0);
+        }
+    }
+}
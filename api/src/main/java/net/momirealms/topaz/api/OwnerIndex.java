@@ -0,0 +1,290 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.DoubleChestInventory;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * 按所有者索引的 GUI。方块所有者使用世界和压缩后的方块坐标作为键，实体所有者使用 UUID 作为键，
+ * 因此方块和实体事件只需一次哈希查找，并且在没有匹配时不会创建任何 {@link BlockState}。
+ * 方块所有者还会按区块索引，以便在区块卸载时批量找到其中的 GUI。
+ * 每个所有者的 GUI 按注册顺序保存，{@link TopazUI#get(InventoryHolder)} 返回最后注册的 GUI。
+ */
+final class OwnerIndex {
+    /** Paper 可以在不创建方块状态快照的情况下获取背包的持有者 */
+    private static final boolean HOLDER_WITHOUT_SNAPSHOT;
+
+    static {
+        boolean holderWithoutSnapshot;
+        try {
+            Inventory.class.getMethod("getHolder", boolean.class);
+            holderWithoutSnapshot = true;
+        } catch (NoSuchMethodException e) {
+            holderWithoutSnapshot = false;
+        }
+        HOLDER_WITHOUT_SNAPSHOT = holderWithoutSnapshot;
+    }
+
+    private final Map<BlockKey, Set<TopazUI>> blocks = new ConcurrentHashMap<>();
+    private final Map<BlockKey, Set<TopazUI>> chunks = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<TopazUI>> entities = new ConcurrentHashMap<>();
+
+    /**
+     * 将 GUI 添加到所有者的索引中
+     * @param owner 所有者，可以是实体或方块状态；其他所有者将被忽略
+     * @param gui   要添加的 GUI
+     */
+    void add(Object owner, TopazUI gui) {
+        if (owner instanceof Entity) {
+            entities.computeIfAbsent(((Entity) owner).getUniqueId(), k -> new CopyOnWriteArraySet<>()).add(gui);
+        } else if (owner instanceof BlockState) {
+            BlockState state = (BlockState) owner;
+            blocks.computeIfAbsent(BlockKey.of(state), k -> new CopyOnWriteArraySet<>()).add(gui);
+            chunks.computeIfAbsent(BlockKey.ofChunk(state), k -> new CopyOnWriteArraySet<>()).add(gui);
+        }
+    }
+
+    /**
+     * 从所有者的索引中移除 GUI
+     * @param owner 所有者，可以是实体或方块状态；其他所有者将被忽略
+     * @param gui   要移除的 GUI
+     */
+    void remove(Object owner, TopazUI gui) {
+        if (owner instanceof Entity) {
+            remove(entities, ((Entity) owner).getUniqueId(), gui);
+        } else if (owner instanceof BlockState) {
+            BlockState state = (BlockState) owner;
+            remove(blocks, BlockKey.of(state), gui);
+            remove(chunks, BlockKey.ofChunk(state), gui);
+        }
+    }
+
+    private static <K> void remove(Map<K, Set<TopazUI>> map, K key, TopazUI gui) {
+        map.computeIfPresent(key, (k, guis) -> {
+            guis.remove(gui);
+            return guis.isEmpty() ? null : guis;
+        });
+    }
+
+    /**
+     * 获取最后一个注册到所有者的 GUI
+     * @param owner 所有者，可以是实体或方块状态
+     * @return 最后注册的 GUI；没有或所有者不是实体或方块状态时返回 <code>null</code>
+     */
+    TopazUI getLatest(Object owner) {
+        Set<TopazUI> guis = null;
+        if (owner instanceof Entity) {
+            guis = entities.get(((Entity) owner).getUniqueId());
+        } else if (owner instanceof BlockState) {
+            guis = blocks.get(BlockKey.of((BlockState) owner));
+        }
+        if (guis == null) {
+            return null;
+        }
+        TopazUI latest = null;
+        for (TopazUI gui : guis) {
+            latest = gui;
+        }
+        return latest;
+    }
+
+    /**
+     * 获取由方块拥有的 GUI
+     * @param block 方块
+     * @return 由该方块拥有的 GUI；没有则返回空集合
+     */
+    Set<TopazUI> get(Block block) {
+        if (blocks.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return orEmpty(blocks.get(new BlockKey(block.getWorld().getUID(), packPosition(block.getX(), block.getY(), block.getZ()))));
+    }
+
+    /**
+     * 获取由实体拥有的 GUI
+     * @param entity 实体
+     * @return 由该实体拥有的 GUI；没有则返回空集合
+     */
+    Set<TopazUI> get(Entity entity) {
+        if (entities.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return orEmpty(entities.get(entity.getUniqueId()));
+    }
+
+    /**
+     * 获取由背包的所有者拥有的 GUI，等同于查找背包的持有者。
+     * 大箱子的两个半边都会被查找。在 Paper 上获取持有者时不会创建方块状态的快照；
+     * 只有持有者的类型已被索引时才会查找。
+     * @param inventory 背包
+     * @return 由该背包的所有者拥有的 GUI；没有则返回空集合
+     */
+    Set<TopazUI> get(Inventory inventory) {
+        if (isEmpty()) {
+            return Collections.emptySet();
+        }
+        if (inventory instanceof DoubleChestInventory) {
+            if (blocks.isEmpty()) {
+                return Collections.emptySet();
+            }
+            DoubleChestInventory doubleChest = (DoubleChestInventory) inventory;
+            Set<TopazUI> left = get(doubleChest.getLeftSide().getLocation());
+            Set<TopazUI> right = get(doubleChest.getRightSide().getLocation());
+            if (left.isEmpty() || right.isEmpty()) {
+                return left.isEmpty() ? right : left;
+            }
+            Set<TopazUI> guis = new HashSet<>(left);
+            guis.addAll(right);
+            return guis;
+        }
+        InventoryHolder holder = HOLDER_WITHOUT_SNAPSHOT ? inventory.getHolder(false) : inventory.getHolder();
+        if (holder instanceof Entity) {
+            return get((Entity) holder);
+        } else if (holder instanceof BlockState) {
+            return blocks.isEmpty() ? Collections.emptySet() : orEmpty(blocks.get(BlockKey.of((BlockState) holder)));
+        }
+        return Collections.emptySet();
+    }
+
+    private Set<TopazUI> get(Location location) {
+        if (location == null || location.getWorld() == null) {
+            return Collections.emptySet();
+        }
+        return orEmpty(blocks.get(new BlockKey(location.getWorld().getUID(), packPosition(location.getBlockX(), location.getBlockY(), location.getBlockZ()))));
+    }
+
+    /**
+     * 获取由区块中的方块或实体拥有的 GUI。区块中的实体只有在存在实体所有者时才会被查询。
+     * @param chunk             区块
+     * @param includeEntities   是否包含区块中实体拥有的 GUI
+     * @return 由区块中的所有者拥有的 GUI；没有则返回空列表
+     */
+    List<TopazUI> get(Chunk chunk, boolean includeEntities) {
+        List<TopazUI> guis = new ArrayList<>();
+        if (!chunks.isEmpty()) {
+            Set<TopazUI> owned = chunks.get(new BlockKey(chunk.getWorld().getUID(), packChunk(chunk.getX(), chunk.getZ())));
+            if (owned != null) {
+                guis.addAll(owned);
+            }
+        }
+        if (includeEntities && !entities.isEmpty()) {
+            for (Entity entity : chunk.getEntities()) {
+                guis.addAll(get(entity));
+            }
+        }
+        return guis;
+    }
+
+    /**
+     * 获取由多个实体拥有的 GUI
+     * @param entities  实体
+     * @return 由这些实体拥有的 GUI；没有则返回空列表
+     */
+    List<TopazUI> get(Collection<? extends Entity> entities) {
+        if (this.entities.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<TopazUI> guis = new ArrayList<>();
+        for (Entity entity : entities) {
+            guis.addAll(get(entity));
+        }
+        return guis;
+    }
+
+    /**
+     * 检查索引是否为空
+     * @return 如果没有任何 GUI 拥有方块或实体所有者，则返回 <code>true</code>
+     */
+    boolean isEmpty() {
+        return blocks.isEmpty() && entities.isEmpty();
+    }
+
+    private static Set<TopazUI> orEmpty(Set<TopazUI> guis) {
+        return guis != null ? guis : Collections.emptySet();
+    }
+
+    /**
+     * 将方块坐标压缩为一个 <code>long</code>（x 和 z 各 26 位，y 12 位）
+     * @param x x 坐标
+     * @param y y 坐标
+     * @param z z 坐标
+     * @return 压缩后的坐标
+     */
+    static long packPosition(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) z & 0x3FFFFFFL) << 12 | (long) y & 0xFFFL;
+    }
+
+    /**
+     * 将区块坐标压缩为一个 <code>long</code>
+     * @param x 区块 x 坐标
+     * @param z 区块 z 坐标
+     * @return 压缩后的坐标
+     */
+    static long packChunk(int x, int z) {
+        return (long) x << 32 | (long) z & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 方块所有者的键：世界 UUID 和压缩后的方块或区块坐标
+     */
+    static final class BlockKey {
+        private final UUID world;
+        private final long position;
+
+        BlockKey(UUID world, long position) {
+            this.world = world;
+            this.position = position;
+        }
+
+        /**
+         * 获取方块状态所在方块的键
+         * @param state 方块状态
+         * @return 方块的键
+         */
+        static BlockKey of(BlockState state) {
+            return new BlockKey(state.getWorld().getUID(), packPosition(state.getX(), state.getY(), state.getZ()));
+        }
+
+        /**
+         * 获取方块状态所在区块的键
+         * @param state 方块状态
+         * @return 区块的键
+         */
+        static BlockKey ofChunk(BlockState state) {
+            return new BlockKey(state.getWorld().getUID(), packChunk(state.getX() >> 4, state.getZ() >> 4));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return position == other.position && world.equals(other.world);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * world.hashCode() + Long.hashCode(position);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * 由分页数据源提供内容的物品组。只有被显示的页面及其相邻的页面的物品才会被创建，
+ * 最近使用的若干页面会被缓存，因此即使数据源包含大量条目，打开 GUI 的开销也只与一页的大小相关。
+ * 每页的大小等于该组在 GUI 设置中占用的槽位数量。
+ * <p>
+ * 显示某一页时，其前后 {@link #getPrefetchPages()} 页会在下一刻于主线程（Folia 上为全局区域线程）上提前加载，
+ * 翻页时通常不需要等待数据源。如果数据源和物品工厂是线程安全的，可以通过
+ * {@link #setPrefetchExecutor(Executor)} 在其他线程上预取，或将预取页数设为 0 以禁用预取。
+ * 每个查看者当前显示的页面会被单独记录，缓存的大小会随之增长，多个查看者停留在不同页面时不会互相挤出缓存。
+ * <p>
+ * 使用 {@link #addItems(GuiItem)} 等方法添加的物品显示在数据源的所有条目之后，例如“新建”按钮。
+ * <p>
+ * 数据源的条目数量和已加载的页面会被缓存，数据变化后应调用 {@link #invalidate()} 并重新绘制 GUI。
+ *
+ * @param <T> 数据源中条目的类型
+ */
+public class PagedGuiItemGroup<T> extends GuiItemGroup {
+    private static final UUID NO_VIEWER = new UUID(0, 0);
+
+    private final DataProvider<T> provider;
+    private final Function<T, GuiItem> factory;
+    private volatile int cachedPages = 3;
+    private volatile int prefetchPages = 1;
+    private volatile Executor prefetchExecutor = null;
+    private volatile boolean viewerDependent = false;
+    private volatile int cachedSize = -1;
+    private final Map<Integer, GuiItem[]> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Integer> prefetching = new HashSet<>();
+    /** 每次失效时递增，用于丢弃失效之前开始的预取结果 */
+    private int generation = 0;
+    /** 每个查看者当前显示的页面 */
+    private final Map<UUID, Integer> shownPages = new ConcurrentHashMap<>();
+
+    /**
+     * 创建一个由数据源提供内容的物品组
+     *
+     * @param slotChar  要替换的 GUI 设置字符串中的字符
+     * @param provider  提供条目的数据源
+     * @param factory   将条目转换为物品的函数
+     */
+    public PagedGuiItemGroup(char slotChar, DataProvider<T> provider, Function<T, GuiItem> factory) {
+        super(slotChar);
+        this.provider = provider;
+        this.factory = factory;
+    }
+
+    /**
+     * 获取数据源中的条目数量与添加到该组的物品数量之和。条目数量会被缓存直到调用 {@link #invalidate()}
+     *
+     * @return 物品数量
+     */
+    @Override
+    public int size() {
+        return getProviderSize() + super.size();
+    }
+
+    private int getProviderSize() {
+        int size = cachedSize;
+        if (size < 0) {
+            size = Math.max(0, provider.size());
+            cachedSize = size;
+        }
+        return size;
+    }
+
+    @Override
+    protected GuiItem getItemAt(int index) {
+        return getItemAt(null, index);
+    }
+
+    @Override
+    protected GuiItem getItemAt(HumanEntity who, int index) {
+        int providerSize = getProviderSize();
+        if (index >= providerSize) {
+            return super.getItemAt(index - providerSize);
+        }
+        int pageSize = slots.length;
+        if (index < 0 || pageSize == 0) {
+            return null;
+        }
+        int pageIndex = index / pageSize;
+        GuiItem[] page = getPage(pageIndex, pageSize);
+        Integer previous = shownPages.put(who != null ? who.getUniqueId() : NO_VIEWER, pageIndex);
+        if (previous == null || previous != pageIndex) {
+            prefetchAround(pageIndex, pageSize, providerSize);
+        }
+        int offset = index % pageSize;
+        return offset < page.length ? page[offset] : null;
+    }
+
+    private GuiItem[] getPage(int pageIndex, int pageSize) {
+        int generation;
+        synchronized (pages) {
+            GuiItem[] page = pages.get(pageIndex);
+            if (page != null && page.length <= pageSize) {
+                return page;
+            }
+            generation = this.generation;
+        }
+        // 在锁外查询数据源，避免阻塞其他页面的读取
+        GuiItem[] page = loadPage(pageIndex, pageSize);
+        putPage(pageIndex, page, generation);
+        return page;
+    }
+
+    /**
+     * 在预取执行器上加载页面前后尚未加载的页面
+     */
+    private void prefetchAround(int pageIndex, int pageSize, int providerSize) {
+        int window = prefetchPages;
+        if (window <= 0 || providerSize == 0) {
+            return;
+        }
+        Executor executor = getExecutor();
+        if (executor == null) {
+            return;
+        }
+        int lastPage = (providerSize - 1) / pageSize;
+        for (int i = pageIndex - window; i <= pageIndex + window; i++) {
+            if (i < 0 || i == pageIndex || i > lastPage) {
+                continue;
+            }
+            int generation;
+            synchronized (pages) {
+                // 只检查而不访问，避免改变页面的使用顺序
+                if (pages.containsKey(i) || !prefetching.add(i)) {
+                    continue;
+                }
+                generation = this.generation;
+            }
+            int prefetchIndex = i;
+            try {
+                executor.execute(() -> {
+                    try {
+                        putPage(prefetchIndex, loadPage(prefetchIndex, pageSize), generation);
+                    } finally {
+                        synchronized (pages) {
+                            prefetching.remove(prefetchIndex);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                synchronized (pages) {
+                    prefetching.remove(prefetchIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取预取使用的执行器。没有设置时在 GUI 的主线程/全局区域线程上运行，尚未添加到 GUI 时不预取。
+     */
+    private Executor getExecutor() {
+        Executor executor = prefetchExecutor;
+        if (executor != null) {
+            return executor;
+        }
+        TopazUI gui = this.gui;
+        return gui != null ? gui::runTask : null;
+    }
+
+    private void putPage(int pageIndex, GuiItem[] page, int generation) {
+        synchronized (pages) {
+            if (generation != this.generation) {
+                return;
+            }
+            pages.put(pageIndex, page);
+            // 保证每个查看者显示的页面及其前后的预取页面可以同时缓存
+            int shown = Math.max(1, new HashSet<>(shownPages.values()).size());
+            int limit = Math.max(cachedPages, shown * (prefetchPages * 2 + 1));
+            while (pages.size() > limit) {
+                pages.remove(pages.keySet().iterator().next());
+            }
+        }
+    }
+
+    private GuiItem[] loadPage(int pageIndex, int pageSize) {
+        List<T> entries = provider.fetch(pageIndex * pageSize, pageSize);
+        int length = entries != null ? Math.min(entries.size(), pageSize) : 0;
+        GuiItem[] page = new GuiItem[length];
+        for (int i = 0; i < length; i++) {
+            GuiItem item = factory.apply(entries.get(i));
+            if (item != null) {
+                item.setGui(gui);
+                item.setSlots(slots);
+            }
+            page[i] = item;
+        }
+        return page;
+    }
+
+    /**
+     * 获取当前已加载的物品以及添加到该组的物品。未加载的页面中的物品不包含在内。
+     *
+     * @return 已加载物品的不可修改列表
+     */
+    @Override
+    public List<GuiItem> getItems() {
+        List<GuiItem> items = new ArrayList<>();
+        synchronized (pages) {
+            for (GuiItem[] page : pages.values()) {
+                for (GuiItem item : page) {
+                    if (item != null) {
+                        items.add(item);
+                    }
+                }
+            }
+        }
+        items.addAll(super.getItems());
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * 数据源中的条目只有被显示时才会创建物品，因此是否依赖于查看者由 {@link #setViewerDependent(boolean)} 决定，
+     * 而不是由已加载的页面决定。添加到该组的物品和填充物品仍会被检查。
+     *
+     * @return 如果不同的玩家可能看到不同的内容，则返回<code>true</code>
+     */
+    @Override
+    public boolean isViewerDependent() {
+        if (viewerDependent) {
+            return true;
+        }
+        for (GuiItem guiItem : super.getItems()) {
+            if (guiItem != null && guiItem.isViewerDependent()) {
+                return true;
+            }
+        }
+        GuiItem filler = getFiller();
+        return filler != null && filler.isViewerDependent();
+    }
+
+    /**
+     * 设置物品工厂创建的物品是否依赖于查看者，例如使用玩家函数创建的 {@link DynamicGuiItem}
+     *
+     * @param viewerDependent 物品工厂创建的物品是否依赖于查看者
+     */
+    public void setViewerDependent(boolean viewerDependent) {
+        this.viewerDependent = viewerDependent;
+    }
+
+    /**
+     * 清除缓存的条目数量和已加载的页面，下次绘制时将重新从数据源查询
+     */
+    public void invalidate() {
+        synchronized (pages) {
+            pages.clear();
+            cachedSize = -1;
+            generation++;
+            shownPages.clear();
+        }
+        invalidatePageAmounts();
+    }
+
+    @Override
+    public void setSlots(int[] slots) {
+        boolean changed = !Arrays.equals(this.slots, slots);
+        super.setSlots(slots);
+        // 页面大小或位置可能已改变。动态物品每次查询都会设置相同的槽位，此时保留已加载的页面
+        if (changed) {
+            invalidate();
+        }
+    }
+
+    /**
+     * 不再记录查看者显示的页面
+     *
+     * @param viewerId 查看者的 UUID
+     */
+    void removeViewer(UUID viewerId) {
+        shownPages.remove(viewerId);
+    }
+
+    /**
+     * 不再记录任何查看者显示的页面
+     */
+    void clearViewers() {
+        shownPages.clear();
+    }
+
+    /**
+     * 获取最多缓存的页面数量
+     *
+     * @return 缓存的页面数量
+     */
+    public int getCachedPages() {
+        return cachedPages;
+    }
+
+    /**
+     * 设置最多缓存的页面数量。超出时将移除最久未使用的页面。
+     * 多个查看者显示不同的页面时，实际缓存的页面数量会随之增加。
+     *
+     * @param cachedPages 缓存的页面数量，至少为 1
+     */
+    public void setCachedPages(int cachedPages) {
+        this.cachedPages = Math.max(1, cachedPages);
+    }
+
+    /**
+     * 获取显示某一页时在其前后预取的页面数量
+     *
+     * @return 预取的页面数量，0 表示不预取
+     */
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    /**
+     * 设置显示某一页时在其前后预取的页面数量。
+     * 每个被显示的页面都会缓存至少 <code>2 * prefetchPages + 1</code> 个页面。
+     *
+     * @param prefetchPages 预取的页面数量，0 表示不预取
+     */
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = Math.max(0, prefetchPages);
+    }
+
+    /**
+     * 获取用于预取页面的执行器
+     *
+     * @return 预取执行器，<code>null</code> 表示在 GUI 的主线程/全局区域线程上预取
+     */
+    public Executor getPrefetchExecutor() {
+        return prefetchExecutor;
+    }
+
+    /**
+     * 设置用于预取页面的执行器。只有数据源和物品工厂是线程安全的时候，才应使用在其他线程上运行的执行器。
+     *
+     * @param prefetchExecutor 预取执行器，<code>null</code> 表示在 GUI 的主线程/全局区域线程上预取
+     */
+    public void setPrefetchExecutor(Executor prefetchExecutor) {
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * 清除添加到该组的物品和已加载的页面
+     */
+    @Override
+    public void clearItems() {
+        super.clearItems();
+        invalidate();
+    }
+
+    /**
+     * 获取数据源
+     *
+     * @return 数据源
+     */
+    public DataProvider<T> getProvider() {
+        return provider;
+    }
+
+    /**
+     * 分页的数据源
+     *
+     * @param <T> 条目的类型
+     */
+    public interface DataProvider<T> {
+        /**
+         * 获取条目总数
+         *
+         * @return 条目数量
+         */
+        int size();
+
+        /**
+         * 获取一段连续的条目
+         *
+         * @param offset 第一个条目的索引
+         * @param limit  最多返回的条目数量
+         * @return 从 <code>offset</code> 开始的最多 <code>limit</code> 个条目
+         */
+        List<T> fetch(int offset, int limit);
+    }
+}
@@ -0,0 +1,157 @@
+package net.momirealms.topaz.api;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的占位符模板。文本只会被解析一次，拆分为字面量片段和占位符引用，
+ * 之后在一次遍历中渲染，并且只会查询实际使用到的占位符的值。
+ * 占位符的格式为 <code>%name%</code>，其中名称不能为空且不能包含空白字符。
+ * 只有包含 <code>%</code> 的文本会被缓存，缓存满时丢弃最久未使用的模板，因此频繁变化的文本不会挤掉常用的模板。
+ */
+final class PlaceholderTemplate {
+    private static final int MAX_CACHED_TEMPLATES = 2048;
+    private static final Map<String, PlaceholderTemplate> CACHE = new LinkedHashMap<String, PlaceholderTemplate>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PlaceholderTemplate> eldest) {
+            return size() > MAX_CACHED_TEMPLATES;
+        }
+    };
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(StringBuilder::new);
+    private static final String[] NO_PLACEHOLDERS = new String[0];
+
+    private final String text;
+    private final String[] literals;
+    private final String[] placeholders;
+
+    private PlaceholderTemplate(String text, String[] literals, String[] placeholders) {
+        this.text = text;
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * 获取文本的模板，已编译的模板会被缓存
+     * @param text  要编译的文本
+     * @return 文本的模板
+     */
+    static PlaceholderTemplate compile(String text) {
+        if (text.indexOf('%') < 0) {
+            return new PlaceholderTemplate(text, null, NO_PLACEHOLDERS);
+        }
+        synchronized (CACHE) {
+            PlaceholderTemplate template = CACHE.get(text);
+            if (template != null) {
+                return template;
+            }
+        }
+        PlaceholderTemplate template = parse(text);
+        synchronized (CACHE) {
+            CACHE.put(text, template);
+        }
+        return template;
+    }
+
+    /**
+     * 获取缓存的模板数量
+     * @return 缓存的模板数量
+     */
+    static int getCacheSize() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    private static PlaceholderTemplate parse(String text) {
+        int start = text.indexOf('%');
+        if (start < 0) {
+            return new PlaceholderTemplate(text, null, NO_PLACEHOLDERS);
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int literalStart = 0;
+        while (start >= 0) {
+            int end = text.indexOf('%', start + 1);
+            if (end < 0) {
+                break;
+            }
+            String name = text.substring(start + 1, end);
+            if (isPlaceholderName(name)) {
+                literals.add(text.substring(literalStart, start));
+                placeholders.add(name);
+                literalStart = end + 1;
+                start = text.indexOf('%', literalStart);
+            } else {
+                start = end;
+            }
+        }
+        if (placeholders.isEmpty()) {
+            return new PlaceholderTemplate(text, null, NO_PLACEHOLDERS);
+        }
+        literals.add(text.substring(literalStart));
+        return new PlaceholderTemplate(text, literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    private static boolean isPlaceholderName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 检查此模板是否包含占位符
+     * @return 如果包含至少一个占位符，则返回 <code>true</code>
+     */
+    boolean hasPlaceholders() {
+        return placeholders.length > 0;
+    }
+
+    /**
+     * 获取此模板引用的占位符名称，按出现顺序排列，可能包含重复项
+     * @return 占位符名称，不包含 <code>%</code>
+     */
+    String[] getPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * 渲染此模板。没有占位符的文本将原样返回。
+     * @param resolver  查询占位符值的函数
+     * @return 替换了所有已知占位符的文本
+     */
+    String render(Resolver resolver) {
+        if (placeholders.length == 0) {
+            return text;
+        }
+        StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(literals[i]);
+            String value = resolver.resolve(placeholders[i]);
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append('%').append(placeholders[i]).append('%');
+            }
+        }
+        builder.append(literals[placeholders.length]);
+        return builder.toString();
+    }
+
+    interface Resolver {
+        /**
+         * 查询占位符的值
+         * @param name  占位符名称，不包含 <code>%</code>
+         * @return 占位符的值，如果是未知的占位符则返回 <code>null</code>，此时占位符保持原样
+         */
+        String resolve(String name);
+    }
+}
@@ -0,0 +1,238 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并 GUI 重绘请求的调度器。每个插件拥有一个实例。
+ * 在同一刻内对同一 GUI 的多次重绘请求只会在下一刻执行一次，并且每个查看者最多重绘一次。
+ * 如果只有部分槽位被标记为脏（见 {@link TopazUI#markDirty(int)}），则只重新渲染这些槽位。
+ * 在 Folia 上，每个查看者的所有待重绘 GUI 会合并为一个在其所在区域线程上运行的任务。
+ */
+public class RedrawScheduler {
+    private final JavaPlugin plugin;
+    private final Map<TopazUI, Request> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+
+    RedrawScheduler(JavaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 请求在下一刻为所有查看者重新绘制 GUI
+     * @param gui   要重新绘制的 GUI
+     */
+    public void request(TopazUI gui) {
+        request(gui, null);
+    }
+
+    /**
+     * 请求在下一刻为特定查看者重新绘制 GUI
+     * @param gui       要重新绘制的 GUI
+     * @param viewer    要重新绘制的查看者，如果为 <code>null</code> 则为所有查看者
+     */
+    public void request(TopazUI gui, HumanEntity viewer) {
+        requested.increment();
+        pending.compute(gui, (g, request) -> {
+            if (request == null) {
+                request = new Request();
+            }
+            if (!request.add(viewer != null ? viewer.getUniqueId() : null)) {
+                coalesced.increment();
+            }
+            return request;
+        });
+        schedule(gui);
+    }
+
+    /**
+     * 请求在下一刻为所有查看者重新渲染 GUI 中被标记为脏的槽位
+     * @param gui   包含脏槽位的 GUI
+     */
+    void requestSlots(TopazUI gui) {
+        requested.increment();
+        pending.compute(gui, (g, request) -> {
+            if (request == null) {
+                request = new Request();
+            }
+            if (request.all || request.slots) {
+                coalesced.increment();
+            }
+            request.slots = true;
+            return request;
+        });
+        schedule(gui);
+    }
+
+    /**
+     * 请求在下一刻只为一个查看者重新渲染 GUI 中的特定槽位
+     * @param gui       要重新渲染的 GUI
+     * @param viewer    要重新渲染的查看者
+     * @param slots     要重新渲染的槽位
+     */
+    void requestSlots(TopazUI gui, HumanEntity viewer, BitSet slots) {
+        requested.increment();
+        pending.compute(gui, (g, request) -> {
+            if (request == null) {
+                request = new Request();
+            }
+            BitSet viewerSlots = request.viewerSlots.get(viewer.getUniqueId());
+            if (request.all || request.viewers.contains(viewer.getUniqueId()) || viewerSlots != null) {
+                coalesced.increment();
+            }
+            if (viewerSlots == null) {
+                request.viewerSlots.put(viewer.getUniqueId(), (BitSet) slots.clone());
+            } else {
+                viewerSlots.or(slots);
+            }
+            return request;
+        });
+        schedule(gui);
+    }
+
+    private void schedule(TopazUI gui) {
+        if (scheduled.compareAndSet(false, true)) {
+            gui.runTask(this::flush);
+        }
+    }
+
+    /**
+     * 立即执行所有待处理的重绘
+     */
+    void flush() {
+        scheduled.set(false);
+        // 按查看者分组，使每个查看者只需一个任务
+        Map<UUID, List<Redraw>> batches = new HashMap<>();
+        for (TopazUI gui : pending.keySet()) {
+            Request request = pending.remove(gui);
+            if (request == null) {
+                continue;
+            }
+            BitSet dirtySlots = request.slots ? gui.takeDirtySlots() : null;
+            if (request.all) {
+                for (UUID viewer : gui.getViewerIds()) {
+                    batches.computeIfAbsent(viewer, id -> new ArrayList<>()).add(new Redraw(gui, null));
+                }
+                continue;
+            }
+            for (UUID viewer : request.viewers) {
+                batches.computeIfAbsent(viewer, id -> new ArrayList<>()).add(new Redraw(gui, null));
+            }
+            Map<UUID, BitSet> viewerSlots = new HashMap<>(request.viewerSlots);
+            if (dirtySlots != null && !dirtySlots.isEmpty()) {
+                for (UUID viewer : gui.getViewerIds()) {
+                    viewerSlots.merge(viewer, dirtySlots, (a, b) -> {
+                        BitSet merged = (BitSet) a.clone();
+                        merged.or(b);
+                        return merged;
+                    });
+                }
+            }
+            for (Map.Entry<UUID, BitSet> entry : viewerSlots.entrySet()) {
+                if (!request.viewers.contains(entry.getKey())) {
+                    batches.computeIfAbsent(entry.getKey(), id -> new ArrayList<>()).add(new Redraw(gui, entry.getValue()));
+                }
+            }
+        }
+        for (Map.Entry<UUID, List<Redraw>> batch : batches.entrySet()) {
+            Player player = plugin.getServer().getPlayer(batch.getKey());
+            if (player != null) {
+                batch.getValue().get(0).gui.runTaskOrNow(player, () -> {
+                    for (Redraw redraw : batch.getValue()) {
+                        if (redraw.slots != null) {
+                            redraw.gui.redrawSlots(player, redraw.slots, false);
+                        } else {
+                            redraw.gui.redraw(player);
+                        }
+                        flushed.increment();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 获取请求的重绘次数
+     * @return 自创建以来请求的重绘次数
+     */
+    public long getRequested() {
+        return requested.sum();
+    }
+
+    /**
+     * 获取被合并到已有请求中的重绘次数，这些重绘无需单独执行
+     * @return 自创建以来被合并的重绘次数
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 获取实际执行的查看者重绘次数
+     * @return 自创建以来实际执行的重绘次数
+     */
+    public long getFlushed() {
+        return flushed.sum();
+    }
+
+    /**
+     * 单个 GUI 的待处理重绘
+     */
+    private static class Request {
+        private boolean all = false;
+        private boolean slots = false;
+        private final Set<UUID> viewers = new HashSet<>();
+        /** 只为特定查看者重新渲染的槽位 */
+        private final Map<UUID, BitSet> viewerSlots = new HashMap<>();
+
+        /**
+         * 将查看者添加到此请求
+         * @param viewer    查看者，如果为 <code>null</code> 则为所有查看者
+         * @return 如果此请求之前未包含该查看者，则返回 <code>true</code>
+         */
+        private boolean add(UUID viewer) {
+            if (all) {
+                return false;
+            }
+            if (viewer == null) {
+                all = true;
+                viewers.clear();
+                return true;
+            }
+            return viewers.add(viewer);
+        }
+    }
+
+    /**
+     * 一个查看者的单次重绘
+     */
+    private static class Redraw {
+        private final TopazUI gui;
+        private final BitSet slots;
+
+        /**
+         * @param gui   要重绘的 GUI
+         * @param slots 要重新渲染的槽位，如果为 <code>null</code> 则重绘整个 GUI
+         */
+        private Redraw(TopazUI gui, BitSet slots) {
+            this.gui = gui;
+            this.slots = slots;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package net.momirealms.topaz.api;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 定时刷新 GUI 的计时器。每个插件拥有一个实例，所有订阅的 GUI 和物品共用一个每刻运行的任务。
+ * 每刻只会在设置的时间预算内执行到期的刷新，超出预算的刷新会顺延到下一刻，并优先于新到期的刷新执行。
+ * 在 Folia 上，物品的刷新会在每个查看者所在的区域线程上执行，整个 GUI 的刷新则通过 {@link RedrawScheduler} 执行。
+ * <p>
+ * GUI 被销毁时会取消其所有订阅。通过 {@link TopazUI#setRefreshInterval(long)} 设置的刷新会在 GUI 再次打开时重新订阅，
+ * 直接订阅的则需要重新调用 {@link #subscribe(TopazUI, long)}。没有查看者的 GUI 会被跳过。
+ */
+public class RefreshTicker {
+    private final JavaPlugin plugin;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile long budgetNanos = 2_000_000L;
+    private long currentTick = 0;
+    private Object task = null;
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+
+    RefreshTicker(JavaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 按固定间隔为所有查看者重新绘制整个 GUI
+     * @param gui           要刷新的 GUI
+     * @param intervalTicks 刷新间隔（刻），必须大于 0
+     */
+    public void subscribe(TopazUI gui, long intervalTicks) {
+        subscribe(gui, null, intervalTicks);
+    }
+
+    /**
+     * 按固定间隔为所有查看者重新渲染 GUI 中某个物品所在的槽位
+     * @param gui           物品所在的 GUI
+     * @param item          要刷新的物品，如果为 <code>null</code> 则刷新整个 GUI
+     * @param intervalTicks 刷新间隔（刻），必须大于 0
+     */
+    public synchronized void subscribe(TopazUI gui, GuiItem item, long intervalTicks) {
+        if (intervalTicks <= 0) {
+            throw new IllegalArgumentException("刷新间隔必须大于 0: " + intervalTicks);
+        }
+        subscriptions.removeIf(s -> s.gui == gui && s.item == item);
+        subscriptions.add(new Subscription(gui, item, intervalTicks, currentTick + intervalTicks));
+        start();
+    }
+
+    /**
+     * 取消 GUI 及其所有物品的订阅
+     * @param gui   要取消订阅的 GUI
+     */
+    public synchronized void unsubscribe(TopazUI gui) {
+        subscriptions.removeIf(s -> s.gui == gui);
+    }
+
+    /**
+     * 取消 GUI 中某个物品的订阅
+     * @param gui   物品所在的 GUI
+     * @param item  要取消订阅的物品，如果为 <code>null</code> 则取消整个 GUI 的订阅（不包括其物品）
+     */
+    public synchronized void unsubscribe(TopazUI gui, GuiItem item) {
+        subscriptions.removeIf(s -> s.gui == gui && s.item == item);
+    }
+
+    private void start() {
+        if (task != null) {
+            return;
+        }
+        if (TopazUI.isFolia()) {
+            task = plugin.getServer().getGlobalRegionScheduler().runAtFixedRate(plugin, st -> tick(), 1, 1);
+        } else {
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+        }
+    }
+
+    /**
+     * 停止计时器。之后的订阅会重新启动它。
+     */
+    synchronized void stop() {
+        if (task instanceof BukkitTask) {
+            ((BukkitTask) task).cancel();
+        } else if (task instanceof ScheduledTask) {
+            ((ScheduledTask) task).cancel();
+        }
+        task = null;
+    }
+
+    /**
+     * 执行一刻的刷新
+     */
+    void tick() {
+        long tick;
+        synchronized (this) {
+            tick = ++currentTick;
+            if (subscriptions.isEmpty()) {
+                stop();
+                return;
+            }
+        }
+        List<Subscription> due = new ArrayList<>();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.nextTick <= tick) {
+                due.add(subscription);
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        // 逾期最久的优先
+        due.sort(Comparator.comparingLong(s -> s.nextTick));
+        long deadline = System.nanoTime() + budgetNanos;
+        for (int i = 0; i < due.size(); i++) {
+            if (i > 0 && System.nanoTime() >= deadline) {
+                deferred.add(due.size() - i);
+                break;
+            }
+            Subscription subscription = due.get(i);
+            subscription.nextTick = tick + subscription.interval;
+            refresh(subscription);
+            refreshed.increment();
+        }
+    }
+
+    private void refresh(Subscription subscription) {
+        TopazUI gui = subscription.gui;
+        GuiItem item = subscription.item;
+        if (TopazUI.isFolia() && item == null) {
+            gui.requestDraw();
+            return;
+        }
+        BitSet slots = null;
+        if (item != null) {
+            slots = new BitSet();
+            for (int slot : item.getSlots()) {
+                if (slot >= 0) {
+                    slots.set(slot);
+                }
+            }
+            if (slots.isEmpty()) {
+                return;
+            }
+        }
+        for (UUID viewerId : new ArrayList<>(gui.getViewerIds())) {
+            Player player = plugin.getServer().getPlayer(viewerId);
+            if (player == null) {
+                continue;
+            }
+            if (slots == null) {
+                gui.redraw(player);
+            } else if (TopazUI.isFolia()) {
+                // 在查看者所在的区域线程上刷新
+                BitSet refreshSlots = slots;
+                gui.runTaskOrNow(player, () -> gui.redrawSlots(player, refreshSlots, true));
+            } else {
+                gui.redrawSlots(player, slots, true);
+            }
+        }
+    }
+
+    /**
+     * 获取每刻用于刷新的时间预算
+     * @return 时间预算（毫秒）
+     */
+    public long getBudget() {
+        return budgetNanos / 1_000_000L;
+    }
+
+    /**
+     * 设置每刻用于刷新的时间预算。每刻至少会执行一次到期的刷新。
+     * @param millis    时间预算（毫秒）
+     */
+    public void setBudget(long millis) {
+        this.budgetNanos = Math.max(0, millis) * 1_000_000L;
+    }
+
+    /**
+     * 获取已执行的刷新次数
+     * @return 自创建以来执行的刷新次数
+     */
+    public long getRefreshed() {
+        return refreshed.sum();
+    }
+
+    /**
+     * 获取因超出时间预算而顺延到下一刻的刷新次数
+     * @return 自创建以来被顺延的刷新次数
+     */
+    public long getDeferred() {
+        return deferred.sum();
+    }
+
+    /**
+     * 一个 GUI 或物品的订阅
+     */
+    private static class Subscription {
+        private final TopazUI gui;
+        private final GuiItem item;
+        private final long interval;
+        private volatile long nextTick;
+
+        private Subscription(TopazUI gui, GuiItem item, long interval, long nextTick) {
+            this.gui = gui;
+            this.item = item;
+            this.interval = interval;
+            this.nextTick = nextTick;
+        }
+    }
+}
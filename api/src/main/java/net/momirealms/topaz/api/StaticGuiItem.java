@@ -3,14 +3,24 @@ package net.momirealms.topaz.api;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.inventory.ItemStack;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 表示GUI中的静态简单物品，可以为其分配操作。
  * 如果您希望在单击时更改物品，您需要自己进行处理。
+ * 渲染出的物品会按照其文本中使用的占位符的值进行缓存，
+ * 因此未更改的物品和填充物不会在每次绘制时重新构建。
  */
 public class StaticGuiItem extends GuiItem {
-    private ItemStack item;
-    private int number;
-    private String[] text;
+    private static final int MAX_CACHED_RENDERS = 32;
+
+    private volatile ItemStack item;
+    private volatile int number;
+    private volatile String[] text;
+    private volatile RenderCache renderCache;
 
     /**
      * 表示GUI中的物品
@@ -63,22 +73,44 @@ public class StaticGuiItem extends GuiItem {
      */
     public void setItem(ItemStack item) {
         this.item = item;
+        invalidateRenderCache();
     }
 
     /**
      * 获取此物品显示的原始物品，它是通过构造函数传递或使用{@link #setItem(ItemStack)}设置的。
      * 此物品不会应用数量或文本！使用{@link #getItem(HumanEntity, int)}来获取带有数量和文本的物品！
+     * 如果修改了此物品，请调用{@link #setItem(ItemStack)}以使渲染缓存失效。
      * @return  原始物品
      */
     public ItemStack getRawItem() {
         return item;
     }
 
+    /**
+     * 获取此物品渲染后的物品。返回的物品可能在多个槽位和玩家之间共享，不应对其进行修改。
+     * @param who  查看页面的玩家
+     * @param slot 要获取物品的槽位
+     * @return 应用了数量和文本的物品
+     */
     @Override
     public ItemStack getItem(HumanEntity who, int slot) {
         if (item == null) {
             return null;
         }
+        RenderCache cache = renderCache;
+        if (cache == null || cache.gui != gui) {
+            renderCache = cache = new RenderCache(gui, text);
+        }
+        String key = cache.getKey(who);
+        ItemStack rendered = cache.get(key);
+        if (rendered == null) {
+            rendered = render(who);
+            cache.put(key, rendered);
+        }
+        return rendered;
+    }
+
+    private ItemStack render(HumanEntity who) {
         ItemStack clone = item.clone();
         gui.setItemText(who, clone, getText());
         if (number > 0 && number <= 64) {
@@ -87,6 +119,19 @@ public class StaticGuiItem extends GuiItem {
         return clone;
     }
 
+    @Override
+    public void setGui(TopazUI gui) {
+        super.setGui(gui);
+        invalidateRenderCache();
+    }
+
+    /**
+     * 清除渲染缓存，下次绘制时将重新构建物品
+     */
+    public void invalidateRenderCache() {
+        renderCache = null;
+    }
+
 
     /**
      * 设置该物品的显示文本。如果这是一个空数组，将显示该项的名称。
@@ -96,6 +141,7 @@ public class StaticGuiItem extends GuiItem {
      */
     public void setText(String... text) {
         this.text = text;
+        invalidateRenderCache();
     }
 
     /**
@@ -112,6 +158,7 @@ public class StaticGuiItem extends GuiItem {
      * @return          如果设置了数字，则返回<code>true</code>；如果数字小于1或大于64，则返回<code>false</code>
      */
     public boolean setNumber(int number) {
+        invalidateRenderCache();
         if (number < 1 || number > 64) {
             this.number = 1;
             return false;
@@ -128,4 +175,68 @@ public class StaticGuiItem extends GuiItem {
         return number;
     }
 
+    /**
+     * 按占位符值缓存的渲染结果，超出 {@link #MAX_CACHED_RENDERS} 时移除最久未使用的结果。
+     * 非内置的占位符不会被替换，渲染后总是原样显示，因此只有内置占位符的值会作为缓存键。
+     */
+    private static class RenderCache {
+        private final TopazUI gui;
+        private final String[] placeholders;
+        private final Map<String, ItemStack> rendered = new LinkedHashMap<String, ItemStack>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ItemStack> eldest) {
+                return size() > MAX_CACHED_RENDERS;
+            }
+        };
+
+        private RenderCache(TopazUI gui, String[] text) {
+            this.gui = gui;
+            List<String> placeholders = new ArrayList<>();
+            if (text != null) {
+                for (String line : text) {
+                    if (line == null) {
+                        continue;
+                    }
+                    for (String key : PlaceholderTemplate.compile(line).getPlaceholders()) {
+                        if (TopazUI.isBuiltinPlaceholder(key) && !placeholders.contains(key)) {
+                            placeholders.add(key);
+                        }
+                    }
+                }
+            }
+            this.placeholders = placeholders.toArray(new String[0]);
+        }
+
+        private ItemStack get(String key) {
+            synchronized (rendered) {
+                return rendered.get(key);
+            }
+        }
+
+        private void put(String key, ItemStack item) {
+            synchronized (rendered) {
+                rendered.put(key, item);
+            }
+        }
+
+        /**
+         * 获取玩家的缓存键，即物品使用的占位符的当前值
+         * @param who   查看页面的玩家
+         * @return 缓存键
+         */
+        private String getKey(HumanEntity who) {
+            if (placeholders.length == 0) {
+                return "";
+            }
+            if (placeholders.length == 1) {
+                return String.valueOf(gui.getPlaceholderValue(who, placeholders[0]));
+            }
+            StringBuilder key = new StringBuilder();
+            for (String placeholder : placeholders) {
+                key.append(gui.getPlaceholderValue(who, placeholder)).append('\u0000');
+            }
+            return key.toString();
+        }
+    }
+
 }
@@ -4,13 +4,11 @@ import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.Nameable;
 import org.bukkit.Sound;
-import org.bukkit.block.BlockState;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
-import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockDispenseEvent;
@@ -25,7 +23,10 @@ import org.bukkit.event.inventory.InventoryInteractEvent;
 import org.bukkit.event.inventory.InventoryMoveItemEvent;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.event.player.PlayerSwapHandItemsEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
@@ -34,64 +35,89 @@ import org.bukkit.material.MaterialData;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
  * 主要的库类，允许您创建和管理GUI。
+ * <p>
+ * 线程模型：在 Folia 上，同一个 GUI 可能会在不同查看者所在的区域线程上同时绘制。
+ * 绘制只读取不可变或安全发布的状态：设置字符串在创建后不再改变，
+ * 槽位到物品的映射是一个写时复制的数组快照，每个查看者的状态保存在并发映射中。
+ * 修改布局的方法（{@link #addItem(GuiItem)}、{@link #setItem(int, GuiItem)}、{@link #removeItem(GuiItem)} 等）
+ * 通过同一个锁串行执行并发布新的快照，因此绘制无需任何全局锁。
  */
 public class TopazUI implements Listener {
 
-    private final static int[] ROW_WIDTHS = {3, 5, 9};
-    private final static InventoryType[] INVENTORY_TYPES = {
-            InventoryType.DISPENSER, // 3*3
-            InventoryType.HOPPER, // 5*1
-            InventoryType.CHEST // 9*x
-    };
+    private final static OwnerIndex OWNER_INDEX = new OwnerIndex();
+    private final static Map<Inventory, TopazUI> INVENTORY_MAP = new ConcurrentHashMap<>();
+    private final static Map<JavaPlugin, GuiListener> LISTENERS = new ConcurrentHashMap<>();
+    private final static Map<UUID, Deque<TopazUI>> GUI_HISTORY = new ConcurrentHashMap<>();
+    private final static Deque<TopazUI> EMPTY_HISTORY = new EmptyHistory();
+    private final static InventoryPool INVENTORY_POOL = new InventoryPool();
 
-    private final static Map<String, TopazUI> GUI_MAP = new ConcurrentHashMap<>();
-    private final static Map<UUID, ArrayDeque<TopazUI>> GUI_HISTORY = new ConcurrentHashMap<>();
+    private final static String[] BUILTIN_PLACEHOLDERS = {"plugin", "owner", "title", "page", "nextpage", "prevpage", "pages"};
 
-    private final static Map<String, Pattern> PATTERN_CACHE = new HashMap<>();
+    private final static UUID SHARED_VIEWER = new UUID(0, 0);
 
     private final static boolean FOLIA;
+    private final static boolean CLOSE_REASON;
 
     private static String DEFAULT_CLICK_SOUND;
 
+    private static volatile int maxHistoryDepth = 16;
+
+    private static volatile ExecutorService renderExecutor;
+
     private final JavaPlugin plugin;
-    private final GuiListener listener;
     private InventoryCreator creator;
-    private String title;
-    private boolean titleUpdated = false;
+    private volatile String title;
+    private volatile boolean titleUpdated = false;
+    private final GuiTemplate template;
     private final char[] slots;
-    private int width;
-    private final GuiItem[] itemSlots;
+    private final int width;
+    private final Object layoutLock = new Object();
+    private volatile GuiItem[] itemSlots;
     private final Map<Character, GuiItem> items = new ConcurrentHashMap<>();
-    private InventoryType inventoryType;
-    private final Map<UUID, Inventory> inventories = new ConcurrentHashMap<>();
-    private InventoryHolder owner;
-    private final Map<UUID, Integer> pageNumbers = new ConcurrentHashMap<>();
-    private final Map<UUID, Integer> pageAmounts = new ConcurrentHashMap<>();
+    private final InventoryType inventoryType;
+    private final Map<UUID, ViewerSession> sessions = new ConcurrentHashMap<>();
+    private volatile InventoryHolder owner;
+    private final AtomicLong pageVersion = new AtomicLong();
+    private final BitSet dirtySlots = new BitSet();
     private GuiItem.Action outsideAction = click -> false;
     private CloseAction closeAction = close -> true;
     private String clickSound = getDefaultClickSound();
     private boolean silent = false;
+    private volatile boolean shared = false;
+    private volatile boolean sharedInventory = false;
+    private volatile boolean asyncRendering = false;
+    private volatile boolean inventoryPooling = false;
+    private volatile long refreshInterval = 0;
+    private final Map<GuiItem, Long> itemRefreshIntervals = new ConcurrentHashMap<>();
 
     static {
         boolean folia;
@@ -103,6 +129,16 @@ public class TopazUI implements Listener {
         }
         FOLIA = folia;
 
+        // 旧版本和 Spigot 没有关闭原因
+        boolean closeReason;
+        try {
+            Class.forName("org.bukkit.event.inventory.InventoryCloseEvent$Reason");
+            closeReason = true;
+        } catch (ClassNotFoundException e) {
+            closeReason = false;
+        }
+        CLOSE_REASON = closeReason;
+
         // Sound names changed, make it compatible with both versions
         String clickSound = null;
         Map<String, String> clickSounds = new LinkedHashMap<>();
@@ -142,52 +178,84 @@ public class TopazUI implements Listener {
      * @throws IllegalArgumentException 如果提供的行无法匹配到InventoryType，则抛出异常
      */
     public TopazUI(JavaPlugin plugin, InventoryCreator creator, InventoryHolder owner, String title, String[] rows, GuiItem... items) {
+        this(plugin, creator, owner, title, new GuiTemplate(rows));
+        addItems(items);
+    }
+
+    /**
+     * 使用模板创建一个新的GUI。模板的布局不会被重新解析，只会使用模板的物品工厂创建此 GUI 的物品。
+     * @param plugin    您的插件
+     * @param creator   用于创建后备库存的创建器
+     * @param owner     持有此GUI的所有者，可使用{@link #get(InventoryHolder)}进行检索。
+     *                  可以为<code>null</code>。
+     * @param title     GUI的名称。这将是存储的标题。
+     * @param template  GUI的模板
+     * @throws IllegalStateException 如果物品工厂返回了已添加到GUI中的物品或槽位字符不匹配的物品，则抛出异常
+     */
+    public TopazUI(JavaPlugin plugin, InventoryCreator creator, InventoryHolder owner, String title, GuiTemplate template) {
         this.plugin = plugin;
         this.creator = creator;
         this.owner = owner;
         this.title = title;
-        this.listener = new GuiListener();
+        this.template = template;
+        this.slots = template.getSlotChars();
+        this.width = template.getWidth();
+        this.inventoryType = template.getInventoryType();
+        itemSlots = new GuiItem[slots.length];
+        addTemplateItems();
+    }
 
-        width = ROW_WIDTHS[0];
-        for (String row : rows) {
-            if (row.length() > width) {
-                width = row.length();
-            }
-        }
-        for (int i = 0; i < ROW_WIDTHS.length && i < INVENTORY_TYPES.length; i++) {
-            if (width < ROW_WIDTHS[i]) {
-                width = ROW_WIDTHS[i];
-            }
-            if (width == ROW_WIDTHS[i]) {
-                inventoryType = INVENTORY_TYPES[i];
-                break;
-            }
-        }
-        if (inventoryType == null) {
-            throw new IllegalArgumentException("Could not match row setup to an inventory type!");
-        }
+    /**
+     * 使用模板创建一个新的GUI
+     * @param plugin    您的插件
+     * @param owner     持有此GUI的所有者，可使用{@link #get(InventoryHolder)}进行检索。
+     *                  可以为<code>null</code>。
+     * @param title     GUI的名称。这将是存储的标题。
+     * @param template  GUI的模板
+     */
+    public TopazUI(JavaPlugin plugin, InventoryHolder owner, String title, GuiTemplate template) {
+        this(plugin, createDefaultCreator(plugin), owner, title, template);
+    }
 
-        StringBuilder slotsBuilder = new StringBuilder();
-        for (String row : rows) {
-            if (row.length() < width) {
-                double side = (width - row.length()) / 2.0;
-                for (int i = 0; i < Math.floor(side); i++) {
-                    slotsBuilder.append(" ");
+    /**
+     * 使用模板创建一个没有所有者的新GUI
+     * @param plugin    您的插件
+     * @param title     GUI的名称。这将是存储的标题。
+     * @param template  GUI的模板
+     */
+    public TopazUI(JavaPlugin plugin, String title, GuiTemplate template) {
+        this(plugin, (InventoryHolder) null, title, template);
+    }
+
+    private static InventoryCreator createDefaultCreator(JavaPlugin plugin) {
+        return new DefaultInventoryCreator(plugin);
+    }
+
+    /**
+     * 使用模板的物品工厂创建物品，所有物品只需写入一次槽位数组
+     */
+    private void addTemplateItems() {
+        synchronized (layoutLock) {
+            GuiItem[] newItemSlots = itemSlots.clone();
+            for (Map.Entry<Character, Supplier<? extends GuiItem>> factory : template.getItemFactories().entrySet()) {
+                GuiItem item = factory.getValue().get();
+                if (item.getSlots().length > 0 || item.getGui() != null) {
+                    throw new IllegalStateException("物品已经添加到GUI中！");
                 }
-                slotsBuilder.append(row);
-                for (int i = 0; i < Math.ceil(side); i++) {
-                    slotsBuilder.append(" ");
+                if (item.getSlotChar() != factory.getKey()) {
+                    throw new IllegalStateException("物品的槽位字符 '" + item.getSlotChar() + "' 与模板中的 '" + factory.getKey() + "' 不匹配！");
+                }
+                items.put(item.getSlotChar(), item);
+                item.setGui(this);
+                int[] slots = template.getSlots(item.getSlotChar());
+                item.setSlots(slots);
+                for (int slot : slots) {
+                    newItemSlots[slot] = item;
                 }
-            } else if (row.length() == width) {
-                slotsBuilder.append(row);
-            } else {
-                slotsBuilder.append(row, 0, width);
             }
+            itemSlots = newItemSlots;
+            invalidatePageAmounts();
         }
-        slots = slotsBuilder.toString().toCharArray();
-        itemSlots = new GuiItem[slots.length];
-
-        addItems(items);
     }
 
 
@@ -203,10 +271,7 @@ public class TopazUI implements Listener {
      * @throws IllegalArgumentException 如果提供的行无法匹配到InventoryType，则抛出异常
      */
     public TopazUI(JavaPlugin plugin, InventoryHolder owner, String title, String[] rows, GuiItem... items) {
-        this(plugin, new InventoryCreator(
-                        (gui, who, type) -> plugin.getServer().createInventory(new Holder(gui), type, gui.replaceVars(who, gui.getTitle())),
-                        (gui, who, size) -> plugin.getServer().createInventory(new Holder(gui), size, gui.replaceVars(who, gui.getTitle()))),
-                owner, title, rows, items);
+        this(plugin, createDefaultCreator(plugin), owner, title, rows, items);
     }
 
     /**
@@ -247,17 +312,22 @@ public class TopazUI implements Listener {
      * @throws IllegalStateException 如果物品已经添加到GUI中，则抛出异常
      */
     public void setItem(int slot, GuiItem item) {
-        if (slot < 0 || slot >= itemSlots.length) {
-            // throw new IllegalArgumentException("Provided slots is outside available slots! (" + itemSlots.length + ")");
-            throw new IllegalArgumentException("提供的槽位超出可用槽位范围！（" + itemSlots.length + "）");
-        }
-        if (item.getSlots().length > 0 || item.getGui() != null) {
-            //throw new IllegalStateException("Item was already added to a gui!");
-            throw new IllegalStateException("物品已经添加到GUI中！");
+        synchronized (layoutLock) {
+            if (slot < 0 || slot >= itemSlots.length) {
+                // throw new IllegalArgumentException("Provided slots is outside available slots! (" + itemSlots.length + ")");
+                throw new IllegalArgumentException("提供的槽位超出可用槽位范围！（" + itemSlots.length + "）");
+            }
+            if (item.getSlots().length > 0 || item.getGui() != null) {
+                //throw new IllegalStateException("Item was already added to a gui!");
+                throw new IllegalStateException("物品已经添加到GUI中！");
+            }
+            item.setSlots(new int[] {slot});
+            item.setGui(this);
+            GuiItem[] newItemSlots = itemSlots.clone();
+            newItemSlots[slot] = item;
+            itemSlots = newItemSlots;
+            invalidatePageAmounts();
         }
-        item.setSlots(new int[] {slot});
-        item.setGui(this);
-        itemSlots[slot] = item;
     }
 
     /**
@@ -265,27 +335,26 @@ public class TopazUI implements Listener {
      * @param item   要添加的{@link GuiItem}
      */
     public void addItem(GuiItem item) {
-        if (item.getSlots().length > 0 || item.getGui() != null) {
-            //throw new IllegalStateException("Item was already added to a gui!");
-            throw new IllegalStateException("物品已经添加到GUI中！");
-        }
-        items.put(item.getSlotChar(), item);
-        item.setGui(this);
-        int[] slots = getSlots(item.getSlotChar());
-        item.setSlots(slots);
-        for (int slot : slots) {
-            itemSlots[slot] = item;
+        synchronized (layoutLock) {
+            if (item.getSlots().length > 0 || item.getGui() != null) {
+                //throw new IllegalStateException("Item was already added to a gui!");
+                throw new IllegalStateException("物品已经添加到GUI中！");
+            }
+            items.put(item.getSlotChar(), item);
+            invalidatePageAmounts();
+            item.setGui(this);
+            int[] slots = getSlots(item.getSlotChar());
+            item.setSlots(slots);
+            GuiItem[] newItemSlots = itemSlots.clone();
+            for (int slot : slots) {
+                newItemSlots[slot] = item;
+            }
+            itemSlots = newItemSlots;
         }
     }
 
     private int[] getSlots(char slotChar) {
-        ArrayList<Integer> slotList = new ArrayList<>();
-        for (int i = 0; i < slots.length; i++) {
-            if (slots[i] == slotChar) {
-                slotList.add(i);
-            }
-        }
-        return slotList.stream().mapToInt(Integer::intValue).toArray();
+        return template.getSlots(slotChar);
     }
 
 
@@ -388,14 +457,27 @@ public class TopazUI implements Listener {
      * @return GUI是否包含此物品，并且是否已被移除
      */
     public boolean removeItem(GuiItem item) {
-        boolean removed = items.remove(item.getSlotChar(), item);
-        for (int slot : item.getSlots()) {
-            if (itemSlots[slot] == item) {
-                itemSlots[slot] = null;
-                removed = true;
+        synchronized (layoutLock) {
+            boolean removed = items.remove(item.getSlotChar(), item);
+            invalidatePageAmounts();
+            if (itemRefreshIntervals.remove(item) != null) {
+                getRefreshTicker().unsubscribe(this, item);
             }
+            GuiItem[] newItemSlots = null;
+            for (int slot : item.getSlots()) {
+                if (itemSlots[slot] == item) {
+                    if (newItemSlots == null) {
+                        newItemSlots = itemSlots.clone();
+                    }
+                    newItemSlots[slot] = null;
+                    removed = true;
+                }
+            }
+            if (newItemSlots != null) {
+                itemSlots = newItemSlots;
+            }
+            return removed;
         }
-        return removed;
     }
 
 
@@ -418,12 +500,19 @@ public class TopazUI implements Listener {
      * @return 该槽位中的物品，如果没有则返回<code>null</code>
      */
     public GuiItem removeItem(int slot) {
-        if (slot < 0 || slot >= itemSlots.length) {
-            return null;
+        synchronized (layoutLock) {
+            if (slot < 0 || slot >= itemSlots.length) {
+                return null;
+            }
+            GuiItem item = itemSlots[slot];
+            if (item != null) {
+                GuiItem[] newItemSlots = itemSlots.clone();
+                newItemSlots[slot] = null;
+                itemSlots = newItemSlots;
+                invalidatePageAmounts();
+            }
+            return item;
         }
-        GuiItem item = itemSlots[slot];
-        itemSlots[slot] = null;
-        return item;
     }
 
     /**
@@ -449,7 +538,8 @@ public class TopazUI implements Listener {
      * @return 页面编号
      */
     public int getPageNumber(@NotNull HumanEntity player) {
-        return pageNumbers.getOrDefault(player.getUniqueId(), 0);
+        ViewerSession session = getSession(player);
+        return session != null ? session.pageNumber : 0;
     }
 
     /**
@@ -457,11 +547,8 @@ public class TopazUI implements Listener {
      * @param pageNumber 要设置的页面编号
      */
     public void setPageNumber(int pageNumber) {
-        for (UUID playerId : inventories.keySet()) {
-            Player player = plugin.getServer().getPlayer(playerId);
-            if (player != null) {
-                setPageNumber(player, pageNumber);
-            }
+        for (HumanEntity player : getDrawTargets()) {
+            setPageNumber(player, pageNumber);
         }
     }
 
@@ -476,7 +563,7 @@ public class TopazUI implements Listener {
     }
 
     private void setPageNumberInternal(HumanEntity player, int pageNumber) {
-        pageNumbers.put(player.getUniqueId(), Math.max(pageNumber, 0));
+        getOrCreateSession(player).pageNumber = Math.max(pageNumber, 0);
     }
 
     /**
@@ -485,7 +572,8 @@ public class TopazUI implements Listener {
      * @return 页面数量
      */
     public int getPageAmount(@NotNull HumanEntity player) {
-        return pageAmounts.getOrDefault(player.getUniqueId(), 1);
+        ViewerSession session = getSession(player);
+        return session != null && session.pageAmount >= 0 ? session.pageAmount : 1;
     }
 
 
@@ -495,10 +583,27 @@ public class TopazUI implements Listener {
      * @param pageAmount    页面数量
      */
     private void setPageAmount(HumanEntity player, int pageAmount) {
-        pageAmounts.put(player.getUniqueId(), pageAmount);
+        getOrCreateSession(player).pageAmount = pageAmount;
+    }
+
+    /**
+     * 使所有查看者缓存的页面数量失效，下次绘制时将重新计算。
+     * 在物品组的内容或其他影响页面数量的物品改变时调用。
+     */
+    void invalidatePageAmounts() {
+        pageVersion.incrementAndGet();
     }
 
     private void calculatePageAmount(HumanEntity player) {
+        ViewerSession session = getOrCreateSession(player);
+        long version = pageVersion.get();
+        if (session.pageVersion == version && session.pageAmount >= 0) {
+            if (session.pageNumber >= session.pageAmount) {
+                // 与重新计算时相同，超出范围时回到第一页
+                session.pageNumber = 0;
+            }
+            return;
+        }
         int pageAmount = 0;
         for (GuiItem item : items.values()) {
             int amount = calculateItemSize(player, item);
@@ -506,15 +611,16 @@ public class TopazUI implements Listener {
                 pageAmount = (int) Math.ceil((double) amount / item.getSlots().length);
             }
         }
-        setPageAmount(player, pageAmount);
-        if (getPageNumber(player) >= pageAmount) {
-            setPageNumberInternal(player, Math.min(0, pageAmount - 1));
+        session.pageAmount = pageAmount;
+        session.pageVersion = version;
+        if (session.pageNumber >= pageAmount) {
+            session.pageNumber = 0;
         }
     }
 
     private int calculateItemSize(HumanEntity player, GuiItem item) {
         if (item instanceof GuiItemGroup) {
-            return ((GuiItemGroup) item).size();
+            return ((GuiItemGroup) item).size(player);
         } else if (item instanceof GuiStorageItem) {
             return ((GuiStorageItem) item).getStorage().getSize();
         } else if (item instanceof DynamicGuiItem) {
@@ -539,6 +645,7 @@ public class TopazUI implements Listener {
      */
     public void show(HumanEntity player, boolean checkOpen) {
         // 将物品绘制到一个Inventory中，如果标题已更新，则在存在的情况下也强制重新创建Inventory
+        boolean titleUpdated = this.titleUpdated;
         draw(player, true, titleUpdated);
         if (titleUpdated || !checkOpen || !this.equals(getOpen(player))) {
             InventoryType type = player.getOpenInventory().getType();
@@ -563,7 +670,7 @@ public class TopazUI implements Listener {
             }
         }
         // 重置指示标题是否已更改的字段
-        titleUpdated = false;
+        this.titleUpdated = false;
     }
 
     /**
@@ -579,21 +686,55 @@ public class TopazUI implements Listener {
      */
     public void build(InventoryHolder owner) {
         setOwner(owner);
-        listener.registerListeners();
+        getListener(plugin).guis.add(this);
     }
 
     /**
      * 绘制GUI中的物品。可以用于手动刷新GUI。更新任何动态物品。
      */
     public void draw() {
-        for (UUID playerId : inventories.keySet()) {
-            Player player = plugin.getServer().getPlayer(playerId);
-            if (player != null) {
+        for (HumanEntity player : getDrawTargets()) {
+            if (asyncRendering) {
+                drawAsync(player);
+            } else {
                 runTaskOrNow(player, () -> draw(player));
             }
         }
     }
 
+    /**
+     * 检查服务器是否运行在 Folia 上
+     * @return 是否为 Folia
+     */
+    static boolean isFolia() {
+        return FOLIA;
+    }
+
+    /**
+     * 获取绘制所有背包时需要绘制的玩家。使用共享背包时只需为一个查看者绘制。
+     * @return 需要绘制的玩家
+     */
+    private List<HumanEntity> getDrawTargets() {
+        List<HumanEntity> targets = new ArrayList<>();
+        if (sharedInventory) {
+            ViewerSession session = sessions.get(SHARED_VIEWER);
+            Inventory inventory = session != null ? session.inventory : null;
+            if (inventory != null && !inventory.getViewers().isEmpty()) {
+                targets.add(inventory.getViewers().get(0));
+            }
+            return targets;
+        }
+        for (Map.Entry<UUID, ViewerSession> entry : sessions.entrySet()) {
+            if (entry.getValue().inventory != null) {
+                Player player = plugin.getServer().getPlayer(entry.getKey());
+                if (player != null) {
+                    targets.add(player);
+                }
+            }
+        }
+        return targets;
+    }
+
 
     /**
      * 绘制GUI中的物品。可以用于手动刷新GUI。更新任何动态物品。
@@ -619,246 +760,811 @@ public class TopazUI implements Listener {
      * @param recreateInventory 重新创建inventory
      */
     public void draw(HumanEntity who, boolean updateDynamic, boolean recreateInventory) {
-        if (updateDynamic) {
-            updateItems(who, items.values());
-        }
-        calculatePageAmount(who);
         Inventory inventory = getInventory(who);
-        if (inventory == null || recreateInventory) {
+        boolean created = inventory == null || recreateInventory;
+        if (created) {
             build();
-            if (slots.length != inventoryType.getDefaultSize()) {
-                inventory = getInventoryCreator().getSizeCreator().create(this, who, slots.length);
-            } else {
-                inventory = getInventoryCreator().getTypeCreator().create(this, who, inventoryType);
+            if (!hasInventories()) {
+                // 第一个背包决定此 GUI 是否使用共享背包，直到所有查看者关闭。
+                // 必须在计算页面之前决定，否则页面会被记录在错误的会话中
+                sharedInventory = shared && !FOLIA && !hasViewerDependentItems();
+                if (sharedInventory) {
+                    adoptSharedSession(who);
+                }
+                subscribeRefresh();
             }
-            inventories.put(who != null ? who.getUniqueId() : null, inventory);
-        } else {
-            inventory.clear();
         }
-        for (int i = 0; i < inventory.getSize(); i++) {
-            GuiItem item = getItem(i);
-            if (item == null) {
-                item = getFiller();
-            }
-            if (item != null) {
-                inventory.setItem(i, item.getItem(who, i));
+        prepareFrame(who, updateDynamic);
+        if (created) {
+            ViewerSession session = getOrCreateSession(who);
+            Inventory previous = session.inventory;
+            InventoryPool.Key previousPoolKey = session.poolKey;
+            inventory = createInventory(who, session);
+            session.inventory = inventory;
+            if (previous != null) {
+                INVENTORY_MAP.remove(previous, this);
+                if (previousPoolKey != null) {
+                    // 重新创建的背包取代了旧的背包，旧的背包仍可被其他 GUI 使用
+                    previous.clear();
+                    INVENTORY_POOL.release(previousPoolKey, previous);
+                }
             }
+            INVENTORY_MAP.put(inventory, this);
         }
+        applyFrame(who, inventory, renderFrame(who, inventory.getSize(), null), created);
     }
 
     /**
-     * 在下一个刻度上调度一个任务在 {@link HumanEntity}/主线程上运行
-     * @param entity 要调度任务的 HumanEntity
-     * @param task 要运行的任务
+     * 切换到共享背包时，将查看者在打开之前设置的页面移到共享会话中，并移除其个人会话
+     * @param who   第一个查看者
      */
-    protected void runTask(HumanEntity entity, Runnable task) {
-        if (FOLIA) {
-            entity.getScheduler().run(plugin, st -> task.run(), null);
-        } else {
-            plugin.getServer().getScheduler().runTask(plugin, task);
+    private void adoptSharedSession(HumanEntity who) {
+        ViewerSession own = sessions.get(who.getUniqueId());
+        if (own != null && own.inventory == null) {
+            endSession(who.getUniqueId(), own);
+            getOrCreateSession(who).pageNumber = own.pageNumber;
         }
     }
 
     /**
-     * 在全局区域/主线程上调度一个任务在下一个刻度运行
-     * @param task 要运行的任务
+     * 为查看者创建背包。启用背包池时会先尝试从池中取出空闲的背包。
+     * @param who       查看者
+     * @param session   查看者的会话，会记录背包在池中的键
+     * @return 新的或从池中取出的背包
      */
-    protected void runTask(Runnable task) {
-        if (FOLIA) {
-            plugin.getServer().getGlobalRegionScheduler().run(plugin, st -> task.run());
-        } else {
-            plugin.getServer().getScheduler().runTask(plugin, task);
+    private Inventory createInventory(HumanEntity who, ViewerSession session) {
+        InventoryCreator creator = getInventoryCreator();
+        if (inventoryPooling && creator instanceof DefaultInventoryCreator) {
+            // 标题只替换一次，同时用作池的键和新背包的标题
+            String title = replaceVars(who, getTitle());
+            InventoryPool.Key poolKey = new InventoryPool.Key(template, slots.length, inventoryType, title);
+            session.poolKey = poolKey;
+            Inventory pooled = INVENTORY_POOL.acquire(poolKey, this);
+            if (pooled != null) {
+                return pooled;
+            }
+            return ((DefaultInventoryCreator) creator).create(this, title);
+        }
+        session.poolKey = null;
+        if (slots.length != inventoryType.getDefaultSize()) {
+            return creator.getSizeCreator().create(this, who, slots.length);
         }
+        return creator.getTypeCreator().create(this, who, inventoryType);
     }
 
     /**
-     * 在下一个刻度上调度一个任务在 {@link HumanEntity} 上运行
-     * 如果当前线程已经是正确的线程，则立即执行
-     * @param entity 要调度任务的 HumanEntity
-     * @param task 要运行的任务
+     * 在另一个线程上渲染GUI中的物品，然后在查看者所在的线程上一次性写入背包。
+     * 如果在渲染完成之前又请求了新的渲染，则旧的渲染会被取消。
+     * 如果查看者尚未打开此GUI，则直接调用 {@link #draw(HumanEntity)}。
+     * @param who   要绘制GUI的对象
+     * @see #setAsyncRendering(boolean)
      */
-    protected void runTaskOrNow(HumanEntity entity, Runnable task) {
-        if (FOLIA) {
-            if (plugin.getServer().isOwnedByCurrentRegion(entity)) {
-                task.run();
-            } else {
-                entity.getScheduler().run(plugin, st -> task.run(), null);
-            }
-        } else {
-            if (plugin.getServer().isPrimaryThread()) {
-                task.run();
-            } else {
-                plugin.getServer().getScheduler().runTask(plugin, task);
-            }
+    public void drawAsync(HumanEntity who) {
+        Inventory inventory = getInventory(who);
+        if (inventory == null) {
+            draw(who);
+            return;
         }
+        ViewerSession session = getOrCreateSession(who);
+        int size = inventory.getSize();
+        ViewerSession.RenderJob job = new ViewerSession.RenderJob();
+        session.startRenderJob(job);
+        CompletableFuture.supplyAsync(() -> {
+            prepareFrame(who, true);
+            return renderFrame(who, size, job);
+        }, getRenderExecutor()).whenComplete((frame, throwable) -> {
+            if (throwable != null) {
+                session.finishRenderJob(job);
+                if (!(throwable.getCause() instanceof CancellationException)) {
+                    plugin.getLogger().log(Level.SEVERE, "渲染 " + getTitle() + " GUI 时发生异常！", throwable);
+                }
+                return;
+            }
+            runTaskOrNow(who, () -> {
+                // 只应用最新的渲染结果
+                if (session.finishRenderJob(job) && !job.cancelled && getSession(who) == session) {
+                    Inventory current = session.inventory;
+                    if (current != null && current.getSize() == frame.length) {
+                        applyFrame(who, current, frame, false);
+                    }
+                }
+            });
+        });
     }
 
     /**
-     * 更新物品集合中的所有动态物品。
-     * @param who       要更新物品的玩家
-     * @param items  要更新的物品集合
+     * 渲染前更新动态物品并计算页面数量
+     * @param who           要绘制GUI的对象
+     * @param updateDynamic 更新动态物品
      */
-    public static void updateItems(HumanEntity who, Collection<GuiItem> items) {
-        for (GuiItem item : items) {
-            if (item instanceof DynamicGuiItem) {
-                ((DynamicGuiItem) item).update(who);
-            } else if (item instanceof GuiItemGroup) {
-                updateItems(who, ((GuiItemGroup) item).getItems());
-            }
+    private void prepareFrame(HumanEntity who, boolean updateDynamic) {
+        if (updateDynamic) {
+            updateItems(who, items.values());
         }
+        calculatePageAmount(who);
     }
 
     /**
-     * 关闭所有正在查看此 GUI 的玩家的 GUI
+     * 渲染GUI中每个槽位的物品，不会修改任何背包
+     * @param who   要绘制GUI的对象
+     * @param size  背包的大小
+     * @param job   此次渲染所属的异步任务，如果是同步渲染则为 <code>null</code>
+     * @return 渲染出的物品，每个槽位一个
+     * @throws CancellationException 如果异步任务已被更新的渲染取代
      */
-    public void close() {
-        close(true);
+    private ItemStack[] renderFrame(HumanEntity who, int size, ViewerSession.RenderJob job) {
+        GuiItem[] itemSlots = this.itemSlots;
+        GuiItem filler = getFiller();
+        ItemStack[] frame = new ItemStack[size];
+        for (int i = 0; i < frame.length; i++) {
+            if (job != null && job.cancelled) {
+                throw new CancellationException();
+            }
+            GuiItem item = i < itemSlots.length ? itemSlots[i] : null;
+            if (item == null) {
+                item = filler;
+            }
+            if (item != null) {
+                frame[i] = item.getItem(who, i);
+            }
+        }
+        return frame;
     }
 
     /**
-     * 关闭所有正在查看此 GUI 的玩家的 GUI
-     * @param clearHistory  是否完全关闭 GUI（通过清除历史记录）
+     * 设置是否在另一个线程上渲染由 {@link #requestDraw()}、{@link #draw()} 等触发的重绘。
+     * 只有在所有物品（包括 {@link DynamicGuiItem} 的查询）都可以安全地在主线程之外运行时才应启用。
+     * @param asyncRendering    是否异步渲染
      */
-    public void close(boolean clearHistory) {
-        for (Inventory inventory : inventories.values()) {
-            for (HumanEntity viewer : new ArrayList<>(inventory.getViewers())) {
-                close(viewer, clearHistory);
-            }
-        }
+    public void setAsyncRendering(boolean asyncRendering) {
+        this.asyncRendering = asyncRendering;
     }
 
     /**
-     * 关闭特定玩家正在查看的 GUI
-     * @param viewer    正在查看的玩家
+     * 获取是否在另一个线程上渲染重绘
+     * @return 是否异步渲染
      */
-    public void close(HumanEntity viewer) {
-        close(viewer, true);
+    public boolean isAsyncRendering() {
+        return asyncRendering;
     }
 
     /**
-     * 关闭特定玩家正在查看的 GUI
-     * @param viewer        正在查看的玩家
-     * @param clearHistory  是否完全关闭 GUI（通过清除历史记录）
+     * 设置此 GUI 的背包在关闭后是否放回背包池中重复使用。使用同一个 {@link GuiTemplate} 创建的 GUI
+     * 以及同一个 GUI 的再次打开会共享池中的背包，标题不同的背包不会被共享。
+     * 只对默认的 {@link InventoryCreator} 生效。
+     * @param inventoryPooling  是否使用背包池
      */
-    public void close(HumanEntity viewer, boolean clearHistory) {
-        if (clearHistory) {
-            clearHistory(viewer);
-        }
-        viewer.closeInventory();
+    public void setInventoryPooling(boolean inventoryPooling) {
+        this.inventoryPooling = inventoryPooling;
     }
 
     /**
-     * 销毁此 GUI。这将取消注册所有监听器并从 GUI_MAP 中移除它
+     * 获取此 GUI 是否使用背包池
+     * @return 是否使用背包池
      */
-    public void destroy() {
-        destroy(true);
+    public boolean isInventoryPooling() {
+        return inventoryPooling;
     }
 
-    private void destroy(boolean closeInventories) {
-        if (closeInventories) {
-            close();
-        }
-        for (Inventory inventory : inventories.values()) {
-            inventory.clear();
-        }
-        inventories.clear();
-        pageNumbers.clear();
-        pageAmounts.clear();
-        listener.unregisterListeners();
-        removeFromMap();
+    /**
+     * 获取背包池中最多保留的背包数量
+     * @return 最大数量
+     */
+    public static int getInventoryPoolSize() {
+        return INVENTORY_POOL.getMaxSize();
     }
 
-
     /**
-     * 将新的历史记录条目添加到历史记录末尾
-     * @param player    要添加历史记录条目的玩家
-     * @param gui       要添加到历史记录的 GUI
+     * 设置背包池中最多保留的背包数量。超出时将丢弃最久未使用的背包。
+     * @param size  最大数量，0 表示不保留任何背包
      */
-    public static void addHistory(HumanEntity player, TopazUI gui) {
-        GUI_HISTORY.putIfAbsent(player.getUniqueId(), new ArrayDeque<>());
-        Deque<TopazUI> history = getHistory(player);
-        if (history.peekLast() != gui) {
-            history.add(gui);
+    public static void setInventoryPoolSize(int size) {
+        INVENTORY_POOL.setMaxSize(size);
+    }
+
+    private static ExecutorService getRenderExecutor() {
+        ExecutorService executor = renderExecutor;
+        if (executor == null) {
+            synchronized (TopazUI.class) {
+                executor = renderExecutor;
+                if (executor == null) {
+                    int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+                    AtomicInteger counter = new AtomicInteger();
+                    renderExecutor = executor = Executors.newFixedThreadPool(threads, runnable -> {
+                        Thread thread = new Thread(runnable, "Topaz Render Thread #" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
         }
+        return executor;
     }
 
     /**
-     * 获取玩家的历史记录
-     * @param player    要获取历史记录的玩家
-     * @return          历史记录作为 TopazUI 的双向队列；返回空队列而不是 <code>null</code>！
+     * 将渲染出的物品写入背包。只写入与该查看者上次渲染内容不同的槽位，
+     * 以避免为未更改的槽位发送更新数据包。
+     * @param who       查看者
+     * @param inventory 要写入的背包
+     * @param frame     渲染出的物品，每个槽位一个
+     * @param created   背包是否是新创建的
      */
-    public static Deque<TopazUI> getHistory(HumanEntity player) {
-        return GUI_HISTORY.getOrDefault(player.getUniqueId(), new ArrayDeque<>());
+    private void applyFrame(HumanEntity who, Inventory inventory, ItemStack[] frame, boolean created) {
+        ViewerSession session = who != null ? getSession(who) : null;
+        ItemStack[] rendered = created || session == null ? null : session.frame;
+        if (rendered == null || rendered.length != frame.length) {
+            rendered = new ItemStack[frame.length];
+            for (int i = 0; i < frame.length; i++) {
+                if (!created || frame[i] != null) {
+                    inventory.setItem(i, frame[i]);
+                }
+                rendered[i] = frame[i] != null ? frame[i].clone() : null;
+            }
+        } else {
+            for (int i = 0; i < frame.length; i++) {
+                if (frame[i] == null ? rendered[i] != null : !frame[i].equals(rendered[i])) {
+                    inventory.setItem(i, frame[i]);
+                    // 保存副本，因为渲染出的物品可能是存储背包中会被修改的物品
+                    rendered[i] = frame[i] != null ? frame[i].clone() : null;
+                }
+            }
+        }
+        if (session != null) {
+            session.frame = rendered;
+        }
     }
 
     /**
-     * 在历史记录中返回上一个条目
-     * @param player    要显示上一个 GUI 的玩家
-     * @return          如果存在要显示的 GUI，则返回 <code>true</code>；否则返回 <code>false</code>
+     * 忘记查看者上次渲染的内容，下次绘制时将写入所有槽位。
+     * 用于背包内容可能已被玩家直接更改的情况。
+     * @param who   查看者
      */
-    public static boolean goBack(HumanEntity player) {
-        Deque<TopazUI> history = getHistory(player);
-        history.pollLast();
-        if (history.isEmpty()) {
-            return false;
-        }
-        TopazUI previous = history.peekLast();
-        if (previous != null) {
-            previous.show(player, false);
+    private void forgetRenderedFrame(HumanEntity who) {
+        ViewerSession session = getSession(who);
+        if (session != null) {
+            session.frame = null;
         }
-        return true;
     }
 
     /**
-     * 清除玩家的历史记录
-     * @param player    要清除历史记录的玩家
-     * @return          历史记录
+     * 请求在下一刻为所有查看者重新绘制此 GUI。同一刻内的多次请求会被合并为一次重绘。
      */
-    public static Deque<TopazUI> clearHistory(HumanEntity player) {
-        Deque<TopazUI> previous = GUI_HISTORY.remove(player.getUniqueId());
-        return previous != null ? previous : new ArrayDeque<>();
+    public void requestDraw() {
+        getRedrawScheduler().request(this);
     }
 
     /**
-     * 获取拥有此 GUI 的插件。应该是创建此 GUI 的插件。
-     * @return 拥有此 GUI 的插件
+     * 请求在下一刻为特定查看者重新绘制此 GUI。同一刻内的多次请求会被合并为一次重绘。
+     * @param who   要重新绘制 GUI 的查看者
      */
-    public JavaPlugin getPlugin() {
-        return plugin;
+    public void requestDraw(HumanEntity who) {
+        getRedrawScheduler().request(this, who);
     }
 
-
     /**
-     * 获取用于为此 GUI 创建自定义背包的辅助类。
-     * 默认情况下，简单地使用 {@link org.bukkit.Bukkit#createInventory(InventoryHolder, int, String)}。
-     * @return 所使用的背包创建器实例
+     * 获取此 GUI 的插件所使用的重绘调度器
+     * @return 合并重绘请求的调度器
      */
-    public InventoryCreator getInventoryCreator() {
-        return creator;
+    public RedrawScheduler getRedrawScheduler() {
+        return getListener(plugin).redrawScheduler;
     }
 
     /**
-     * 设置用于为此 GUI 创建自定义背包的辅助类。
-     * 可用于创建更特殊的背包。
-     * 默认情况下，简单地使用 {@link org.bukkit.Bukkit#createInventory(InventoryHolder, int, String)}。
-     * 应返回一个能够容纳指定大小的容器背包。特殊背包可能会导致问题。
-     * @param creator 新的背包创建器实例
+     * 获取此 GUI 的插件所使用的刷新计时器
+     * @return 定时刷新 GUI 的计时器
      */
-    public void setInventoryCreator(InventoryCreator creator) {
-        this.creator = creator;
+    public RefreshTicker getRefreshTicker() {
+        return getListener(plugin).refreshTicker;
     }
 
     /**
-     * 获取特定插槽的物品
-     * @param slot  要获取物品的插槽
-     * @return      GuiItem，如果插槽为空/没有物品，则返回 <code>null</code>
+     * 设置此 GUI 的自动刷新间隔。刷新由插件共用的 {@link RefreshTicker} 执行。
+     * 只有在 GUI 被打开时才会订阅计时器，GUI 被销毁时取消订阅，再次打开时重新订阅。
+     * @param intervalTicks 刷新间隔（刻），小于等于 0 则不再自动刷新
      */
-    public GuiItem getItem(int slot) {
-        return slot < 0 || slot >= itemSlots.length ? null : itemSlots[slot];
+    public void setRefreshInterval(long intervalTicks) {
+        refreshInterval = Math.max(0, intervalTicks);
+        if (intervalTicks <= 0) {
+            getRefreshTicker().unsubscribe(this, null);
+        } else if (hasInventories()) {
+            getRefreshTicker().subscribe(this, intervalTicks);
+        }
     }
 
     /**
-     * 根据字符获取物品
+     * 设置此 GUI 中某个物品的自动刷新间隔。只会重新渲染该物品所在的槽位。
+     * 与 {@link #setRefreshInterval(long)} 相同，只在 GUI 被打开时订阅计时器。
+     * @param item          要刷新的物品
+     * @param intervalTicks 刷新间隔（刻），小于等于 0 则不再自动刷新
+     */
+    public void setRefreshInterval(GuiItem item, long intervalTicks) {
+        if (intervalTicks <= 0) {
+            itemRefreshIntervals.remove(item);
+            getRefreshTicker().unsubscribe(this, item);
+        } else {
+            itemRefreshIntervals.put(item, intervalTicks);
+            if (hasInventories()) {
+                getRefreshTicker().subscribe(this, item, intervalTicks);
+            }
+        }
+    }
+
+    /**
+     * 为此 GUI 及其物品订阅设置的自动刷新，在第一个背包被创建时调用
+     */
+    private void subscribeRefresh() {
+        if (refreshInterval <= 0 && itemRefreshIntervals.isEmpty()) {
+            return;
+        }
+        RefreshTicker ticker = getRefreshTicker();
+        if (refreshInterval > 0) {
+            ticker.subscribe(this, refreshInterval);
+        }
+        for (Map.Entry<GuiItem, Long> entry : itemRefreshIntervals.entrySet()) {
+            ticker.subscribe(this, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 如果查看者仍然打开着此 GUI，则为其重新绘制。由 {@link RedrawScheduler} 使用
+     * @param who   要重新绘制 GUI 的查看者
+     */
+    void redraw(HumanEntity who) {
+        if (getInventory(who) != null) {
+            if (asyncRendering) {
+                drawAsync(who);
+            } else {
+                draw(who);
+            }
+        }
+    }
+
+    /**
+     * 将槽位标记为脏。该槽位将在下一刻为所有查看者重新渲染，而无需重绘整个 GUI。
+     * @param slot  要重新渲染的槽位
+     */
+    public void markDirty(int slot) {
+        if (slot < 0 || slot >= slots.length) {
+            return;
+        }
+        synchronized (dirtySlots) {
+            dirtySlots.set(slot);
+        }
+        getRedrawScheduler().requestSlots(this);
+    }
+
+    /**
+     * 将设置字符串中使用该字符的所有槽位标记为脏。这些槽位将在下一刻为所有查看者重新渲染。
+     * @param slotChar  槽位字符
+     */
+    public void markDirty(char slotChar) {
+        int[] charSlots = getSlots(slotChar);
+        if (charSlots.length == 0) {
+            return;
+        }
+        synchronized (dirtySlots) {
+            for (int slot : charSlots) {
+                dirtySlots.set(slot);
+            }
+        }
+        getRedrawScheduler().requestSlots(this);
+    }
+
+    /**
+     * 将显示该物品的所有槽位标记为脏。这些槽位将在下一刻为所有查看者重新渲染。
+     * @param item  要重新渲染的物品
+     */
+    public void markDirty(GuiItem item) {
+        int[] itemSlots = item.getSlots();
+        if (itemSlots.length == 0) {
+            return;
+        }
+        synchronized (dirtySlots) {
+            for (int slot : itemSlots) {
+                if (slot >= 0 && slot < slots.length) {
+                    dirtySlots.set(slot);
+                }
+            }
+        }
+        getRedrawScheduler().requestSlots(this);
+    }
+
+    /**
+     * 只为一个查看者将显示该物品的所有槽位标记为脏。这些槽位将在下一刻为该查看者重新渲染。
+     * @param item  要重新渲染的物品
+     * @param who   要重新渲染的查看者
+     */
+    public void markDirty(GuiItem item, HumanEntity who) {
+        BitSet dirty = new BitSet();
+        for (int slot : item.getSlots()) {
+            if (slot >= 0 && slot < slots.length) {
+                dirty.set(slot);
+            }
+        }
+        if (!dirty.isEmpty()) {
+            getRedrawScheduler().requestSlots(this, who, dirty);
+        }
+    }
+
+    /**
+     * 取出并清空当前被标记为脏的槽位。由 {@link RedrawScheduler} 使用
+     * @return 被标记为脏的槽位
+     */
+    BitSet takeDirtySlots() {
+        synchronized (dirtySlots) {
+            BitSet taken = (BitSet) dirtySlots.clone();
+            dirtySlots.clear();
+            return taken;
+        }
+    }
+
+    /**
+     * 只为查看者重新渲染特定槽位。由 {@link RedrawScheduler} 和 {@link RefreshTicker} 使用
+     * @param who       要重新渲染的查看者
+     * @param dirty     要重新渲染的槽位
+     * @param refresh   是否按照缓存策略刷新槽位中的动态物品。只是重新渲染已有的缓存条目时（例如被标记为脏），
+     *                  不应开始新的查询
+     */
+    void redrawSlots(HumanEntity who, BitSet dirty, boolean refresh) {
+        ViewerSession session = getSession(who);
+        Inventory inventory = session != null ? session.inventory : null;
+        if (inventory == null) {
+            return;
+        }
+        ItemStack[] rendered = session.frame;
+        if (rendered == null || rendered.length != inventory.getSize()) {
+            // 没有可用于比较的内容，重绘整个 GUI
+            draw(who);
+            return;
+        }
+        Set<GuiItem> updated = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = dirty.nextSetBit(0); i >= 0 && i < rendered.length; i = dirty.nextSetBit(i + 1)) {
+            GuiItem item = getItem(i);
+            if (item == null) {
+                item = getFiller();
+            }
+            if (refresh && item instanceof DynamicGuiItem && updated.add(item)) {
+                ((DynamicGuiItem) item).refresh(who);
+            }
+        }
+        if (!updated.isEmpty()) {
+            calculatePageAmount(who);
+        }
+        for (int i = dirty.nextSetBit(0); i >= 0 && i < rendered.length; i = dirty.nextSetBit(i + 1)) {
+            GuiItem item = getItem(i);
+            if (item == null) {
+                item = getFiller();
+            }
+            ItemStack stack = item != null ? item.getItem(who, i) : null;
+            if (stack == null ? rendered[i] != null : !stack.equals(rendered[i])) {
+                inventory.setItem(i, stack);
+                rendered[i] = stack != null ? stack.clone() : null;
+            }
+        }
+    }
+
+    /**
+     * 获取当前拥有此 GUI 背包的所有查看者的 UUID
+     * @return 查看者的 UUID 集合
+     */
+    Collection<UUID> getViewerIds() {
+        if (sharedInventory) {
+            List<HumanEntity> targets = getDrawTargets();
+            return targets.isEmpty() ? Collections.emptyList() : Collections.singletonList(targets.get(0).getUniqueId());
+        }
+        List<UUID> viewerIds = new ArrayList<>(sessions.size());
+        for (Map.Entry<UUID, ViewerSession> entry : sessions.entrySet()) {
+            if (entry.getValue().inventory != null) {
+                viewerIds.add(entry.getKey());
+            }
+        }
+        return viewerIds;
+    }
+
+    /**
+     * 获取玩家在每个查看者状态映射中使用的键。使用共享背包时所有玩家共用一个键。
+     * @param who   玩家
+     * @return 玩家的键
+     */
+    private UUID getViewerKey(HumanEntity who) {
+        return sharedInventory ? SHARED_VIEWER : who.getUniqueId();
+    }
+
+    /**
+     * 设置此 GUI 是否使用共享背包。启用后，所有查看者打开同一个背包，它只需渲染一次，
+     * 并且页面编号也由所有查看者共享。
+     * 如果 GUI 包含依赖于查看者的物品（见 {@link GuiItem#isViewerDependent()}），或者在 Folia 上运行，
+     * 则仍然为每个查看者创建单独的背包。更改会在所有查看者关闭此 GUI 后生效。
+     * @param shared    是否使用共享背包
+     */
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * 获取此 GUI 是否设置为使用共享背包
+     * @return 是否设置为使用共享背包
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * 检查此 GUI 当前是否正在使用一个所有查看者共享的背包
+     * @return 如果所有查看者共享同一个背包，则返回 <code>true</code>
+     */
+    public boolean isSharedInventory() {
+        return sharedInventory;
+    }
+
+    private boolean hasViewerDependentItems() {
+        for (GuiItem item : items.values()) {
+            if (item.isViewerDependent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 在下一个刻度上调度一个任务在 {@link HumanEntity}/主线程上运行
+     * @param entity 要调度任务的 HumanEntity
+     * @param task 要运行的任务
+     */
+    protected void runTask(HumanEntity entity, Runnable task) {
+        if (FOLIA) {
+            entity.getScheduler().run(plugin, st -> task.run(), null);
+        } else {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /**
+     * 在全局区域/主线程上调度一个任务在下一个刻度运行
+     * @param task 要运行的任务
+     */
+    protected void runTask(Runnable task) {
+        if (FOLIA) {
+            plugin.getServer().getGlobalRegionScheduler().run(plugin, st -> task.run());
+        } else {
+            plugin.getServer().getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /**
+     * 在下一个刻度上调度一个任务在 {@link HumanEntity} 上运行
+     * 如果当前线程已经是正确的线程，则立即执行
+     * @param entity 要调度任务的 HumanEntity
+     * @param task 要运行的任务
+     */
+    protected void runTaskOrNow(HumanEntity entity, Runnable task) {
+        if (FOLIA) {
+            if (plugin.getServer().isOwnedByCurrentRegion(entity)) {
+                task.run();
+            } else {
+                entity.getScheduler().run(plugin, st -> task.run(), null);
+            }
+        } else {
+            if (plugin.getServer().isPrimaryThread()) {
+                task.run();
+            } else {
+                plugin.getServer().getScheduler().runTask(plugin, task);
+            }
+        }
+    }
+
+    /**
+     * 按照各自的缓存策略更新物品集合中的所有动态物品。
+     * @param who       要更新物品的玩家
+     * @param items  要更新的物品集合
+     * @see DynamicGuiItem#refresh(HumanEntity)
+     */
+    public static void updateItems(HumanEntity who, Collection<GuiItem> items) {
+        for (GuiItem item : items) {
+            if (item instanceof DynamicGuiItem) {
+                ((DynamicGuiItem) item).refresh(who);
+            } else if (item instanceof GuiItemGroup) {
+                updateItems(who, ((GuiItemGroup) item).getItems());
+            }
+        }
+    }
+
+    /**
+     * 关闭所有正在查看此 GUI 的玩家的 GUI
+     */
+    public void close() {
+        close(true);
+    }
+
+    /**
+     * 关闭所有正在查看此 GUI 的玩家的 GUI
+     * @param clearHistory  是否完全关闭 GUI（通过清除历史记录）
+     */
+    public void close(boolean clearHistory) {
+        for (Inventory inventory : getInventories()) {
+            for (HumanEntity viewer : new ArrayList<>(inventory.getViewers())) {
+                close(viewer, clearHistory);
+            }
+        }
+    }
+
+    /**
+     * 关闭特定玩家正在查看的 GUI
+     * @param viewer    正在查看的玩家
+     */
+    public void close(HumanEntity viewer) {
+        close(viewer, true);
+    }
+
+    /**
+     * 关闭特定玩家正在查看的 GUI
+     * @param viewer        正在查看的玩家
+     * @param clearHistory  是否完全关闭 GUI（通过清除历史记录）
+     */
+    public void close(HumanEntity viewer, boolean clearHistory) {
+        if (clearHistory) {
+            clearHistory(viewer);
+        }
+        viewer.closeInventory();
+    }
+
+    /**
+     * 销毁此 GUI。这将不再向其分发事件并将其从所有者索引中移除
+     */
+    public void destroy() {
+        destroy(true);
+        removeFromHistories(this);
+    }
+
+    private void destroy(boolean closeInventories) {
+        if (closeInventories) {
+            close();
+        }
+        for (Map.Entry<UUID, ViewerSession> entry : sessions.entrySet()) {
+            endSession(entry.getKey(), entry.getValue());
+        }
+        sharedInventory = false;
+        GuiListener listener = LISTENERS.get(plugin);
+        if (listener != null) {
+            listener.guis.remove(this);
+            listener.refreshTicker.unsubscribe(this);
+        }
+        removeFromMap();
+    }
+
+
+    /**
+     * 将新的历史记录条目添加到历史记录末尾
+     * @param player    要添加历史记录条目的玩家
+     * @param gui       要添加到历史记录的 GUI
+     */
+    public static void addHistory(HumanEntity player, TopazUI gui) {
+        Deque<TopazUI> history = GUI_HISTORY.computeIfAbsent(player.getUniqueId(), id -> new ConcurrentLinkedDeque<>());
+        if (history.peekLast() != gui) {
+            history.add(gui);
+            // 超出最大深度时丢弃最早的条目
+            int depth = maxHistoryDepth;
+            while (depth > 0 && history.size() > depth) {
+                history.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * 获取玩家的历史记录
+     * @param player    要获取历史记录的玩家
+     * @return          历史记录作为 TopazUI 的双向队列；返回空队列而不是 <code>null</code>！
+     *                  没有历史记录时返回共享的只读空队列，添加条目请使用 {@link #addHistory(HumanEntity, TopazUI)}。
+     *                  只需要当前 GUI 时请使用 {@link #getOpen(HumanEntity)}。
+     */
+    public static Deque<TopazUI> getHistory(HumanEntity player) {
+        Deque<TopazUI> history = GUI_HISTORY.get(player.getUniqueId());
+        return history != null ? history : EMPTY_HISTORY;
+    }
+
+    /**
+     * 获取每个玩家最多保留的历史记录条目数
+     * @return 最大深度，0 表示不限制
+     */
+    public static int getMaxHistoryDepth() {
+        return maxHistoryDepth;
+    }
+
+    /**
+     * 设置每个玩家最多保留的历史记录条目数。超出时将丢弃最早的条目。
+     * @param maxHistoryDepth   最大深度，0 表示不限制
+     */
+    public static void setMaxHistoryDepth(int maxHistoryDepth) {
+        TopazUI.maxHistoryDepth = Math.max(0, maxHistoryDepth);
+    }
+
+    /**
+     * 从所有玩家的历史记录中移除 GUI，使已销毁的 GUI 不再被历史记录引用
+     * @param gui   要移除的 GUI
+     */
+    private static void removeFromHistories(TopazUI gui) {
+        for (Map.Entry<UUID, Deque<TopazUI>> entry : GUI_HISTORY.entrySet()) {
+            Deque<TopazUI> history = entry.getValue();
+            history.removeIf(g -> g == gui);
+            if (history.isEmpty()) {
+                GUI_HISTORY.remove(entry.getKey(), history);
+            }
+        }
+    }
+
+    /**
+     * 在历史记录中返回上一个条目
+     * @param player    要显示上一个 GUI 的玩家
+     * @return          如果存在要显示的 GUI，则返回 <code>true</code>；否则返回 <code>false</code>
+     */
+    public static boolean goBack(HumanEntity player) {
+        Deque<TopazUI> history = GUI_HISTORY.get(player.getUniqueId());
+        if (history == null) {
+            return false;
+        }
+        history.pollLast();
+        if (history.isEmpty()) {
+            GUI_HISTORY.remove(player.getUniqueId(), history);
+            return false;
+        }
+        TopazUI previous = history.peekLast();
+        if (previous != null) {
+            previous.show(player, false);
+        }
+        return true;
+    }
+
+    /**
+     * 清除玩家的历史记录
+     * @param player    要清除历史记录的玩家
+     * @return          历史记录，没有历史记录时返回共享的只读空队列
+     */
+    public static Deque<TopazUI> clearHistory(HumanEntity player) {
+        Deque<TopazUI> previous = GUI_HISTORY.remove(player.getUniqueId());
+        return previous != null ? previous : EMPTY_HISTORY;
+    }
+
+    /**
+     * 获取拥有此 GUI 的插件。应该是创建此 GUI 的插件。
+     * @return 拥有此 GUI 的插件
+     */
+    public JavaPlugin getPlugin() {
+        return plugin;
+    }
+
+
+    /**
+     * 获取用于为此 GUI 创建自定义背包的辅助类。
+     * 默认情况下，简单地使用 {@link org.bukkit.Bukkit#createInventory(InventoryHolder, int, String)}。
+     * @return 所使用的背包创建器实例
+     */
+    public InventoryCreator getInventoryCreator() {
+        return creator;
+    }
+
+    /**
+     * 设置用于为此 GUI 创建自定义背包的辅助类。
+     * 可用于创建更特殊的背包。
+     * 默认情况下，简单地使用 {@link org.bukkit.Bukkit#createInventory(InventoryHolder, int, String)}。
+     * 应返回一个能够容纳指定大小的容器背包。特殊背包可能会导致问题。
+     * @param creator 新的背包创建器实例
+     */
+    public void setInventoryCreator(InventoryCreator creator) {
+        this.creator = creator;
+    }
+
+    /**
+     * 获取特定插槽的物品
+     * @param slot  要获取物品的插槽
+     * @return      GuiItem，如果插槽为空/没有物品，则返回 <code>null</code>
+     */
+    public GuiItem getItem(int slot) {
+        GuiItem[] itemSlots = this.itemSlots;
+        return slot < 0 || slot >= itemSlots.length ? null : itemSlots[slot];
+    }
+
+    /**
+     * 根据字符获取物品
      * @param c 要获取物品的字符
      * @return  GuiItem，如果没有对应的物品，则返回 <code>null</code>
      */
@@ -882,11 +1588,7 @@ public class TopazUI implements Listener {
     public void setOwner(InventoryHolder owner) {
         removeFromMap();
         this.owner = owner;
-        if (owner instanceof Entity) {
-            GUI_MAP.put(((Entity) owner).getUniqueId().toString(), this);
-        } else if (owner instanceof BlockState) {
-            GUI_MAP.put(((BlockState) owner).getLocation().toString(), this);
-        }
+        OWNER_INDEX.add(owner, this);
     }
 
     /**
@@ -990,11 +1692,7 @@ public class TopazUI implements Listener {
     }
 
     private void removeFromMap() {
-        if (owner instanceof Entity) {
-            GUI_MAP.remove(((Entity) owner).getUniqueId().toString(), this);
-        } else if (owner instanceof BlockState) {
-            GUI_MAP.remove(((BlockState) owner).getLocation().toString(), this);
-        }
+        OWNER_INDEX.remove(owner, this);
     }
 
 
@@ -1004,12 +1702,7 @@ public class TopazUI implements Listener {
      * @return          注册到该 InventoryHolder 的 TopazUI，如果没有注册则返回 <code>null</code>
      */
     public static TopazUI get(InventoryHolder holder) {
-        if (holder instanceof Entity) {
-            return GUI_MAP.get(((Entity) holder).getUniqueId().toString());
-        } else if (holder instanceof BlockState) {
-            return GUI_MAP.get(((BlockState) holder).getLocation().toString());
-        }
-        return null;
+        return OWNER_INDEX.getLatest(holder);
     }
 
     /**
@@ -1018,7 +1711,8 @@ public class TopazUI implements Listener {
      * @return          玩家当前打开的 TopazUI
      */
     public static TopazUI getOpen(HumanEntity player) {
-        return getHistory(player).peekLast();
+        Deque<TopazUI> history = GUI_HISTORY.get(player.getUniqueId());
+        return history != null ? history.peekLast() : null;
     }
 
     /**
@@ -1030,43 +1724,161 @@ public class TopazUI implements Listener {
     }
 
     /**
-     * 设置 GUI 的标题
-     * @param title 要设置的 GUI 标题
+     * 设置 GUI 的标题
+     * @param title 要设置的 GUI 标题
+     */
+    public void setTitle(String title) {
+        this.title = title;
+        this.titleUpdated = true;
+    }
+
+    /**
+     * 播放点击音效，例如当物品作为按钮时
+     */
+    public void playClickSound() {
+        if (isSilent() || clickSound == null) return;
+        for (Inventory inventory : getInventories()) {
+            for (HumanEntity humanEntity : inventory.getViewers()) {
+                if (humanEntity instanceof Player) {
+                    ((Player) humanEntity).playSound(humanEntity.getEyeLocation(), getClickSound(), 1, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取背包。包范围，因为它只应由 TopazUI.Holder 使用
+     * @return GUI 生成的背包
+     */
+    Inventory getInventory() {
+        return getInventory(null);
+    }
+
+    /**
+     * 获取特定玩家的背包
+     * @param who 玩家，如果为 null，则尝试返回首次创建的背包；如果没有创建，则返回 null
+     * @return GUI 生成的背包，如果找不到则返回 null
+     */
+    private Inventory getInventory(HumanEntity who) {
+        if (who != null) {
+            ViewerSession session = getSession(who);
+            return session != null ? session.inventory : null;
+        }
+        for (ViewerSession session : sessions.values()) {
+            Inventory inventory = session.inventory;
+            if (inventory != null) {
+                return inventory;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取此 GUI 当前创建的所有背包
+     * @return 背包列表
+     */
+    private List<Inventory> getInventories() {
+        List<Inventory> inventories = new ArrayList<>(sessions.size());
+        for (ViewerSession session : sessions.values()) {
+            Inventory inventory = session.inventory;
+            if (inventory != null) {
+                inventories.add(inventory);
+            }
+        }
+        return inventories;
+    }
+
+    /**
+     * 检查此 GUI 是否为任何查看者创建了背包
+     * @return 是否存在背包
+     */
+    private boolean hasInventories() {
+        for (ViewerSession session : sessions.values()) {
+            if (session.inventory != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取查看者的会话
+     * @param who   查看者
+     * @return 会话，如果不存在则返回 <code>null</code>
      */
-    public void setTitle(String title) {
-        this.title = title;
-        this.titleUpdated = true;
+    private ViewerSession getSession(HumanEntity who) {
+        return sessions.get(getViewerKey(who));
     }
 
     /**
-     * 播放点击音效，例如当物品作为按钮时
+     * 获取查看者的会话，如果不存在则创建一个
+     * @param who   查看者
+     * @return 会话
      */
-    public void playClickSound() {
-        if (isSilent() || clickSound == null) return;
-        for (Inventory inventory : inventories.values()) {
-            for (HumanEntity humanEntity : inventory.getViewers()) {
-                if (humanEntity instanceof Player) {
-                    ((Player) humanEntity).playSound(humanEntity.getEyeLocation(), getClickSound(), 1, 1);
-                }
+    private ViewerSession getOrCreateSession(HumanEntity who) {
+        return sessions.computeIfAbsent(getViewerKey(who), k -> {
+            if (!SHARED_VIEWER.equals(k)) {
+                getListener(plugin).addSession(k, this);
             }
-        }
+            return new ViewerSession();
+        });
     }
 
     /**
-     * 获取背包。包范围，因为它只应由 TopazUI.Holder 使用
-     * @return GUI 生成的背包
+     * 结束会话：取消进行中的渲染，清空并注销其背包，并移除物品中为该查看者缓存的内容。
+     * 这是清理查看者状态的唯一位置。
+     * @param key       会话的键
+     * @param session   要结束的会话
      */
-    Inventory getInventory() {
-        return getInventory(null);
+    private void endSession(UUID key, ViewerSession session) {
+        if (sessions.remove(key, session) && !SHARED_VIEWER.equals(key) && !sessions.containsKey(key)) {
+            GuiListener listener = LISTENERS.get(plugin);
+            if (listener != null) {
+                listener.removeSession(key, this);
+            }
+        }
+        session.cancelRenderJob();
+        Inventory inventory = session.inventory;
+        if (inventory != null) {
+            inventory.clear();
+            INVENTORY_MAP.remove(inventory, this);
+            if (session.poolKey != null) {
+                INVENTORY_POOL.release(session.poolKey, inventory);
+            }
+        }
+        session.inventory = null;
+        session.poolKey = null;
+        session.frame = null;
+        releaseItemCaches(key);
     }
 
     /**
-     * 获取特定玩家的背包
-     * @param who 玩家，如果为 null，则尝试返回首次创建的背包；如果没有创建，则返回 null
-     * @return GUI 生成的背包，如果找不到则返回 null
+     * 移除物品中为查看者缓存的内容。共享背包的会话结束时，所有查看者都已离开，因此移除所有缓存。
+     * @param key   会话的键
      */
-    private Inventory getInventory(HumanEntity who) {
-        return who != null ? inventories.get(who.getUniqueId()) : (inventories.isEmpty() ? null : inventories.values().iterator().next());
+    private void releaseItemCaches(UUID key) {
+        boolean shared = SHARED_VIEWER.equals(key);
+        for (GuiItem item : getItems()) {
+            if (item instanceof DynamicGuiItem) {
+                if (shared) {
+                    ((DynamicGuiItem) item).clearCachedItems();
+                } else {
+                    ((DynamicGuiItem) item).removeCachedItem(key);
+                }
+            } else if (item instanceof GuiItemGroupView) {
+                if (shared) {
+                    ((GuiItemGroupView) item).clearViewers();
+                } else {
+                    ((GuiItemGroupView) item).removeViewer(key);
+                }
+            } else if (item instanceof PagedGuiItemGroup) {
+                if (shared) {
+                    ((PagedGuiItemGroup<?>) item).clearViewers();
+                } else {
+                    ((PagedGuiItemGroup<?>) item).removeViewer(key);
+                }
+            }
+        }
     }
 
     /**
@@ -1120,8 +1932,12 @@ public class TopazUI implements Listener {
                 }
             }
             if (action != null) {
+                if (sharedInventory || click.isRedrawn()) {
+                    // 所有查看者看到的是同一个背包，或者动作已经请求重新渲染受影响的槽位
+                    return click;
+                }
                 // 假设发生了某些变化，重新绘制所有当前显示的背包
-                for (UUID playerId : inventories.keySet()) {
+                for (UUID playerId : getViewerIds()) {
                     if (!event.getWhoClicked().getUniqueId().equals(playerId)) {
                         Player player = plugin.getServer().getPlayer(playerId);
                         if (player != null) {
@@ -1148,48 +1964,245 @@ public class TopazUI implements Listener {
     }
 
 
-    private abstract class UnregisterableListener implements Listener {
-        private final List<UnregisterableListener> listeners;
-        private boolean listenersRegistered = false;
+    /**
+     * 获取第一个显示存储物品的槽位
+     * @return 槽位，如果此 GUI 中没有存储物品则返回 <code>-1</code>
+     */
+    private int getFirstStorageSlot() {
+        GuiItem[] itemSlots = this.itemSlots;
+        for (int i = 0; i < itemSlots.length; i++) {
+            if (itemSlots[i] instanceof GuiStorageItem) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        private UnregisterableListener() {
-            List<UnregisterableListener> listeners = new ArrayList<>();
-            for (Class<?> innerClass : getClass().getDeclaredClasses()) {
-                if (UnregisterableListener.class.isAssignableFrom(innerClass)) {
-                    try {
-                        UnregisterableListener listener = ((Class<? extends UnregisterableListener>) innerClass).getDeclaredConstructor(getClass()).newInstance(this);
-                        if (!(listener instanceof OptionalListener) || ((OptionalListener) listener).isCompatible()) {
-                            listeners.add(listener);
-                        }
-                    } catch (InstantiationException | IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                        e.printStackTrace();
+    /**
+     * 处理此 GUI 背包中的点击事件，由 {@link GuiListener} 转发
+     * @param event 点击事件
+     */
+    private void handleClick(InventoryClickEvent event) {
+        int slot = -1;
+        if (event.getRawSlot() < event.getView().getTopInventory().getSize()) {
+            slot = event.getRawSlot();
+        } else if (event.getAction() == InventoryAction.MOVE_TO_OTHER_INVENTORY) {
+            // 转发到第一个存储物品，由它决定物品放入哪些槽位
+            slot = getFirstStorageSlot();
+            if (slot < 0) {
+                slot = event.getInventory().firstEmpty();
+            }
+        }
+
+        // 缓存原始光标
+        ItemStack originalCursor = event.getCursor() != null ? event.getCursor().clone() : null;
+
+        // 转发点击事件
+        GuiItem.Click click = handleInteract(event, event.getClick(), slot, event.getCursor());
+
+        // 如有必要，更新光标位置
+        if (click != null && (originalCursor == null || !originalCursor.equals(click.getCursor()))) {
+            event.setCursor(click.getCursor());
+        }
+
+        if (!event.isCancelled()) {
+            // 物品在背包中发生了移动，上次渲染的内容不再可靠
+            forgetRenderedFrame(event.getWhoClicked());
+        }
+    }
+
+    /**
+     * 处理此 GUI 背包中的拖动事件，由 {@link GuiListener} 转发
+     * @param event     拖动事件
+     * @param inventory 玩家在此 GUI 中的背包
+     */
+    private void handleDrag(InventoryDragEvent event, Inventory inventory) {
+        // 拖动会直接更改背包内容，上次渲染的内容不再可靠
+        forgetRenderedFrame(event.getWhoClicked());
+
+        // 如果只在一个插槽上进行拖动，则将其视为使用物品进行点击，并进行处理。
+        if (event.getRawSlots().size() == 1) {
+            int slot = event.getRawSlots().iterator().next();
+            if (slot < event.getView().getTopInventory().getSize()) {
+                GuiItem.Click click = handleInteract(
+                        event,
+                        // 将拖动类型映射到导致它的按钮
+                        event.getType() == DragType.SINGLE ? ClickType.RIGHT : ClickType.LEFT,
+                        slot,
+                        event.getOldCursor()
+                );
+
+                // 如有必要，更新光标位置
+                if (click != null && !event.getOldCursor().equals(click.getCursor())) {
+                    event.setCursor(click.getCursor());
+                }
+            }
+            return;
+        }
+
+        int rest = 0;
+        Map<Integer, ItemStack> resetSlots = new HashMap<>();
+        for (Map.Entry<Integer, ItemStack> items : event.getNewItems().entrySet()) {
+            if (items.getKey() < inventory.getSize()) {
+                GuiItem item = getItem(items.getKey());
+                if (!(item instanceof GuiStorageItem)
+                        || !((GuiStorageItem) item).setStorageItem(event.getWhoClicked(), items.getKey(), items.getValue())) {
+                    ItemStack slotItem = event.getInventory().getItem(items.getKey());
+                    if (!items.getValue().isSimilar(slotItem)) {
+                        rest += items.getValue().getAmount();
+                    } else if (slotItem != null) {
+                        rest += items.getValue().getAmount() - slotItem.getAmount();
                     }
+                    // items.getValue().setAmount(0); // 无法更改结果物品 :/
+                    resetSlots.put(items.getKey(), event.getInventory().getItem(items.getKey())); // reset them manually
                 }
             }
-            this.listeners = Collections.unmodifiableList(listeners);
         }
 
-        protected void registerListeners() {
-            if (listenersRegistered) {
-                return;
+        runTask(event.getWhoClicked(), () -> {
+            for (Map.Entry<Integer, ItemStack> items : resetSlots.entrySet()) {
+                event.getView().getTopInventory().setItem(items.getKey(), items.getValue());
             }
-            plugin.getServer().getPluginManager().registerEvents(this, plugin);
-            for (UnregisterableListener listener : listeners) {
-                listener.registerListeners();
+        });
+
+        if (rest > 0) {
+            int cursorAmount = event.getCursor() != null ? event.getCursor().getAmount() : 0;
+            if (!event.getOldCursor().isSimilar(event.getCursor())) {
+                event.setCursor(event.getOldCursor());
+                cursorAmount = 0;
+            }
+            int newCursorAmount = cursorAmount + rest;
+            if (newCursorAmount <= event.getCursor().getMaxStackSize()) {
+                event.getCursor().setAmount(newCursorAmount);
+            } else {
+                event.getCursor().setAmount(event.getCursor().getMaxStackSize());
+                ItemStack add = event.getCursor().clone();
+                int addAmount = newCursorAmount - event.getCursor().getMaxStackSize();
+                if (addAmount > 0) {
+                    add.setAmount(addAmount);
+                    for (ItemStack drop : event.getWhoClicked().getInventory().addItem(add).values()) {
+                        event.getWhoClicked().getLocation().getWorld().dropItem(event.getWhoClicked().getLocation(), drop);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理此 GUI 背包的关闭事件，由 {@link GuiListener} 转发
+     * @param event     关闭事件
+     * @param inventory 玩家在此 GUI 中的背包
+     */
+    private void handleClose(InventoryCloseEvent event, Inventory inventory) {
+        // 返回上一层。检查玩家是否在 GUI 中且具有历史记录。
+        // 玩家断开连接时关闭事件先于 PlayerQuitEvent 触发，此时不能再为其打开上一个 GUI
+        if (!isDisconnecting(event) && this.equals(getOpen(event.getPlayer()))) {
+            if (closeAction == null || closeAction.onClose(new Close(event.getPlayer(), this, event))) {
+                goBack(event.getPlayer());
+            } else {
+                clearHistory(event.getPlayer());
+            }
+        }
+        releaseViewer(event.getPlayer(), inventory);
+    }
+
+    /**
+     * 检查关闭事件是否由玩家断开连接引起
+     * @param event     关闭事件
+     * @return          如果玩家正在断开连接，则返回 <code>true</code>
+     */
+    private static boolean isDisconnecting(InventoryCloseEvent event) {
+        if (CLOSE_REASON && event.getReason() == InventoryCloseEvent.Reason.DISCONNECT) {
+            return true;
+        }
+        HumanEntity player = event.getPlayer();
+        return player instanceof Player && !((Player) player).isOnline();
+    }
+
+    /**
+     * 处理玩家退出服务器，由 {@link GuiListener} 转发。确保玩家的会话不会因为没有收到关闭事件而残留。
+     * @param player    退出的玩家
+     */
+    private void handleQuit(HumanEntity player) {
+        if (sharedInventory) {
+            // 共享背包在最后一个查看者关闭时结束会话
+            return;
+        }
+        ViewerSession session = getSession(player);
+        if (session == null) {
+            return;
+        }
+        Inventory inventory = session.inventory;
+        if (inventory != null) {
+            releaseViewer(player, inventory);
+        } else {
+            endSession(getViewerKey(player), session);
+        }
+    }
+
+    /**
+     * 释放查看者的状态。如果没有其他查看者，则销毁此 GUI。
+     * @param who       要释放的查看者
+     * @param inventory 查看者在此 GUI 中的背包
+     */
+    private void releaseViewer(HumanEntity who, Inventory inventory) {
+        if (sharedInventory) {
+            boolean otherViewers = false;
+            for (HumanEntity viewer : inventory.getViewers()) {
+                if (viewer != who) {
+                    otherViewers = true;
+                    break;
+                }
+            }
+            if (!otherViewers) {
+                destroy(false);
+            }
+        } else if (getViewerIds().size() <= 1) {
+            destroy(false);
+        } else {
+            for (HumanEntity viewer : new ArrayList<>(inventory.getViewers())) {
+                if (viewer != who) {
+                    viewer.closeInventory();
+                }
+            }
+            ViewerSession session = getSession(who);
+            if (session != null) {
+                endSession(getViewerKey(who), session);
+            } else {
+                inventory.clear();
+                INVENTORY_MAP.remove(inventory, this);
             }
-            listenersRegistered = true;
         }
+    }
+
+    /**
+     * 根据背包查找对应的 GUI，只需一次哈希查找
+     * @param inventory 要查找的背包
+     * @return 该背包所属的 TopazUI，如果不是 GUI 背包则返回 <code>null</code>
+     */
+    private static TopazUI getByInventory(Inventory inventory) {
+        return inventory != null ? INVENTORY_MAP.get(inventory) : null;
+    }
 
-        protected void unregisterListeners() {
-            HandlerList.unregisterAll(this);
-            for (UnregisterableListener listener : listeners) {
-                listener.unregisterListeners();
+    /**
+     * 获取插件的全局监听器，如有必要则创建并注册
+     * @param plugin    插件
+     * @return 该插件的 GuiListener
+     */
+    private static GuiListener getListener(JavaPlugin plugin) {
+        GuiListener listener = LISTENERS.get(plugin);
+        if (listener == null) {
+            listener = new GuiListener(plugin);
+            GuiListener previous = LISTENERS.putIfAbsent(plugin, listener);
+            if (previous != null) {
+                return previous;
             }
-            listenersRegistered = false;
+            listener.registerListeners();
         }
+        return listener;
     }
 
-    private abstract class OptionalListener extends UnregisterableListener {
+    private static abstract class OptionalListener implements Listener {
         private boolean isCompatible() {
             try {
                 getClass().getMethods();
@@ -1202,190 +2215,236 @@ public class TopazUI implements Listener {
     }
 
     /**
-     * TopazUI 所需的所有监听器
+     * TopazUI 所需的所有监听器。每个插件只注册一个实例，通过背包将事件直接分发给对应的 GUI，
+     * 因此事件的开销不会随着打开的 GUI 数量增长。
      */
-    private class GuiListener extends UnregisterableListener {
+    private static class GuiListener implements Listener {
+        private final JavaPlugin plugin;
+        private final Set<TopazUI> guis = ConcurrentHashMap.newKeySet();
+        /** 每个玩家拥有会话的 GUI，玩家退出时只需处理这些 GUI。共享背包的会话不会被记录 */
+        private final Map<UUID, Set<TopazUI>> playerSessions = new ConcurrentHashMap<>();
+        private final RedrawScheduler redrawScheduler;
+        private final RefreshTicker refreshTicker;
+        private boolean entitiesUnloadListener = false;
 
-        @EventHandler(ignoreCancelled = true)
-        private void onInventoryClick(InventoryClickEvent event) {
-            if (event.getInventory().equals(getInventory(event.getWhoClicked()))) {
+        private GuiListener(JavaPlugin plugin) {
+            this.plugin = plugin;
+            this.redrawScheduler = new RedrawScheduler(plugin);
+            this.refreshTicker = new RefreshTicker(plugin);
+        }
 
-                int slot = -1;
-                if (event.getRawSlot() < event.getView().getTopInventory().getSize()) {
-                    slot = event.getRawSlot();
-                } else if (event.getAction() == InventoryAction.MOVE_TO_OTHER_INVENTORY) {
-                    slot = event.getInventory().firstEmpty();
-                }
+        private void registerListeners() {
+            plugin.getServer().getPluginManager().registerEvents(this, plugin);
+            OptionalListener swapListener = new ItemSwapGuiListener(this);
+            if (swapListener.isCompatible()) {
+                plugin.getServer().getPluginManager().registerEvents(swapListener, plugin);
+            }
+            OptionalListener entitiesUnloadListener = new EntitiesUnloadGuiListener(this);
+            if (entitiesUnloadListener.isCompatible()) {
+                plugin.getServer().getPluginManager().registerEvents(entitiesUnloadListener, plugin);
+                this.entitiesUnloadListener = true;
+            }
+        }
+
+        /**
+         * 记录玩家在 GUI 中拥有会话
+         * @param playerId  玩家的 UUID
+         * @param gui       GUI
+         */
+        private void addSession(UUID playerId, TopazUI gui) {
+            playerSessions.computeIfAbsent(playerId, k -> ConcurrentHashMap.newKeySet()).add(gui);
+        }
 
-                // 缓存原始光标
-                ItemStack originalCursor = event.getCursor() != null ? event.getCursor().clone() : null;
+        /**
+         * 移除玩家在 GUI 中的会话记录，玩家没有其他会话时移除其条目
+         * @param playerId  玩家的 UUID
+         * @param gui       GUI
+         */
+        private void removeSession(UUID playerId, TopazUI gui) {
+            playerSessions.computeIfPresent(playerId, (k, guis) -> {
+                guis.remove(gui);
+                return guis.isEmpty() ? null : guis;
+            });
+        }
 
-                // 转发点击事件
-                GuiItem.Click click = handleInteract(event, event.getClick(), slot, event.getCursor());
+        /**
+         * 获取属于此监听器插件的 GUI
+         * @param inventory 事件中的背包
+         * @return 对应的 TopazUI，如果不存在或属于其他插件则返回 <code>null</code>
+         */
+        private TopazUI getGui(Inventory inventory) {
+            TopazUI gui = getByInventory(inventory);
+            return gui != null && gui.plugin == plugin ? gui : null;
+        }
 
-                // 如有必要，更新光标位置
-                if (click != null && (originalCursor == null || !originalCursor.equals(click.getCursor()))) {
-                    event.setCursor(click.getCursor());
+        /**
+         * 请求重新绘制属于此监听器插件的 GUI
+         * @param guis  要重新绘制的 GUI
+         */
+        private void drawOwned(Collection<TopazUI> guis) {
+            for (TopazUI gui : guis) {
+                if (gui.plugin == plugin) {
+                    gui.requestDraw();
+                }
+            }
+        }
+
+        /**
+         * 销毁属于此监听器插件的 GUI
+         * @param guis  要销毁的 GUI
+         */
+        private void destroyOwned(Collection<TopazUI> guis) {
+            for (TopazUI gui : guis.toArray(new TopazUI[0])) {
+                if (gui.plugin == plugin) {
+                    gui.destroy();
                 }
-            } else if (hasRealOwner() && owner.equals(event.getInventory().getHolder())) {
+            }
+        }
+
+        @EventHandler(ignoreCancelled = true)
+        private void onInventoryClick(InventoryClickEvent event) {
+            TopazUI gui = getGui(event.getInventory());
+            if (gui != null && event.getInventory().equals(gui.getInventory(event.getWhoClicked()))) {
+                gui.handleClick(event);
+            } else if (gui == null && !OWNER_INDEX.isEmpty()) {
                 // 点击了同一所有者的不同 GUI 的底层背包
                 // 假设底层背包发生了更改，重新绘制 GUI
-                runTask(TopazUI.this::draw);
+                drawOwned(OWNER_INDEX.get(event.getInventory()));
             }
         }
 
         @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
         public void onInventoryDrag(InventoryDragEvent event) {
-            Inventory inventory = getInventory(event.getWhoClicked());
-            if (event.getInventory().equals(inventory)) {
-                // 如果只在一个插槽上进行拖动，则将其视为使用物品进行点击，并进行处理。
-                if (event.getRawSlots().size() == 1) {
-                    int slot = event.getRawSlots().iterator().next();
-                    if (slot < event.getView().getTopInventory().getSize()) {
-                        GuiItem.Click click = handleInteract(
-                                event,
-                                // 将拖动类型映射到导致它的按钮
-                                event.getType() == DragType.SINGLE ? ClickType.RIGHT : ClickType.LEFT,
-                                slot,
-                                event.getOldCursor()
-                        );
-
-                        // 如有必要，更新光标位置
-                        if (click != null && !event.getOldCursor().equals(click.getCursor())) {
-                            event.setCursor(click.getCursor());
-                        }
-                    }
-                    return;
-                }
-
-                int rest = 0;
-                Map<Integer, ItemStack> resetSlots = new HashMap<>();
-                for (Map.Entry<Integer, ItemStack> items : event.getNewItems().entrySet()) {
-                    if (items.getKey() < inventory.getSize()) {
-                        GuiItem item = getItem(items.getKey());
-                        if (!(item instanceof GuiStorageItem)
-                                || !((GuiStorageItem) item).setStorageItem(event.getWhoClicked(), items.getKey(), items.getValue())) {
-                            ItemStack slotItem = event.getInventory().getItem(items.getKey());
-                            if (!items.getValue().isSimilar(slotItem)) {
-                                rest += items.getValue().getAmount();
-                            } else if (slotItem != null) {
-                                rest += items.getValue().getAmount() - slotItem.getAmount();
-                            }
-                            // items.getValue().setAmount(0); // 无法更改结果物品 :/
-                            resetSlots.put(items.getKey(), event.getInventory().getItem(items.getKey())); // reset them manually
-                        }
-                    }
-                }
-
-                runTask(event.getWhoClicked(), () -> {
-                    for (Map.Entry<Integer, ItemStack> items : resetSlots.entrySet()) {
-                        event.getView().getTopInventory().setItem(items.getKey(), items.getValue());
-                    }
-                });
-
-                if (rest > 0) {
-                    int cursorAmount = event.getCursor() != null ? event.getCursor().getAmount() : 0;
-                    if (!event.getOldCursor().isSimilar(event.getCursor())) {
-                        event.setCursor(event.getOldCursor());
-                        cursorAmount = 0;
-                    }
-                    int newCursorAmount = cursorAmount + rest;
-                    if (newCursorAmount <= event.getCursor().getMaxStackSize()) {
-                        event.getCursor().setAmount(newCursorAmount);
-                    } else {
-                        event.getCursor().setAmount(event.getCursor().getMaxStackSize());
-                        ItemStack add = event.getCursor().clone();
-                        int addAmount = newCursorAmount - event.getCursor().getMaxStackSize();
-                        if (addAmount > 0) {
-                            add.setAmount(addAmount);
-                            for (ItemStack drop : event.getWhoClicked().getInventory().addItem(add).values()) {
-                                event.getWhoClicked().getLocation().getWorld().dropItem(event.getWhoClicked().getLocation(), drop);
-                            }
-                        }
-                    }
+            TopazUI gui = getGui(event.getInventory());
+            if (gui != null) {
+                Inventory inventory = gui.getInventory(event.getWhoClicked());
+                if (event.getInventory().equals(inventory)) {
+                    gui.handleDrag(event, inventory);
                 }
             }
         }
 
         @EventHandler(priority = EventPriority.MONITOR)
         public void onInventoryClose(InventoryCloseEvent event) {
-            Inventory inventory = getInventory(event.getPlayer());
-            if (event.getInventory().equals(inventory)) {
-                // 返回上一层。检查玩家是否在 GUI 中且具有历史记录。
-                if (TopazUI.this.equals(getOpen(event.getPlayer()))) {
-                    if (closeAction == null || closeAction.onClose(new Close(event.getPlayer(), TopazUI.this, event))) {
-                        goBack(event.getPlayer());
-                    } else {
-                        clearHistory(event.getPlayer());
-                    }
-                }
-                if (inventories.size() <= 1) {
-                    destroy(false);
-                } else {
-                    inventory.clear();
-                    for (HumanEntity viewer : inventory.getViewers()) {
-                        if (viewer != event.getPlayer()) {
-                            viewer.closeInventory();
-                        }
-                    }
-                    inventories.remove(event.getPlayer().getUniqueId());
-                    pageAmounts.remove(event.getPlayer().getUniqueId());
-                    pageNumbers.remove(event.getPlayer().getUniqueId());
-                    for (GuiItem item : getItems()) {
-                        if (item instanceof DynamicGuiItem) {
-                            ((DynamicGuiItem) item).removeCachedItem(event.getPlayer());
-                        }
-                    }
+            TopazUI gui = getGui(event.getInventory());
+            if (gui != null) {
+                Inventory inventory = gui.getInventory(event.getPlayer());
+                if (event.getInventory().equals(inventory)) {
+                    gui.handleClose(event, inventory);
                 }
             }
         }
 
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
         public void onInventoryMoveItem(InventoryMoveItemEvent event) {
-            if (hasRealOwner() && (owner.equals(event.getDestination().getHolder()) || owner.equals(event.getSource().getHolder()))) {
-                runTask(TopazUI.this::draw);
+            if (OWNER_INDEX.isEmpty()) {
+                return;
             }
+            drawOwned(OWNER_INDEX.get(event.getDestination()));
+            drawOwned(OWNER_INDEX.get(event.getSource()));
         }
 
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
         public void onDispense(BlockDispenseEvent event) {
-            if (hasRealOwner() && owner.equals(event.getBlock().getState())) {
-                runTask(TopazUI.this::draw);
-            }
+            drawOwned(OWNER_INDEX.get(event.getBlock()));
         }
 
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
         public void onBlockBreak(BlockBreakEvent event) {
-            if (hasRealOwner() && owner.equals(event.getBlock().getState())) {
-                destroy();
-            }
+            destroyOwned(OWNER_INDEX.get(event.getBlock()));
         }
 
         @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
         public void onEntityDeath(EntityDeathEvent event) {
-            if (hasRealOwner() && owner.equals(event.getEntity())) {
-                destroy();
+            destroyOwned(OWNER_INDEX.get(event.getEntity()));
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onChunkUnload(ChunkUnloadEvent event) {
+            if (OWNER_INDEX.isEmpty()) {
+                return;
+            }
+            // 新版本中实体与区块分开卸载，由 EntitiesUnloadGuiListener 处理
+            destroyOwned(OWNER_INDEX.get(event.getChunk(), !entitiesUnloadListener));
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerQuit(PlayerQuitEvent event) {
+            UUID playerId = event.getPlayer().getUniqueId();
+            GUI_HISTORY.remove(playerId);
+            Set<TopazUI> open = playerSessions.remove(playerId);
+            if (open != null) {
+                for (TopazUI gui : open.toArray(new TopazUI[0])) {
+                    gui.handleQuit(event.getPlayer());
+                }
             }
         }
 
         @EventHandler(priority = EventPriority.MONITOR)
         public void onPluginDisable(PluginDisableEvent event) {
             if (event.getPlugin() == plugin) {
-                destroy();
+                refreshTicker.stop();
+                for (TopazUI gui : new ArrayList<>(guis)) {
+                    gui.destroy();
+                }
+                LISTENERS.remove(plugin, this);
             }
         }
+    }
 
-        /**
-         * 在旧版本中不可用的事件，因此请使用单独的监听器...
-         */
-        protected class ItemSwapGuiListener extends OptionalListener {
+    /**
+     * 没有历史记录时返回的只读空队列，避免每次查询都创建新的队列
+     */
+    private static class EmptyHistory extends ArrayDeque<TopazUI> {
+        private EmptyHistory() {
+            super(0);
+        }
 
-            @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
-            public void onInventoryMoveItem(PlayerSwapHandItemsEvent event) {
-                Inventory inventory = getInventory(event.getPlayer());
-                if (event.getPlayer().getOpenInventory().getTopInventory().equals(inventory)) {
-                    event.setCancelled(true);
-                }
+        @Override
+        public void addFirst(TopazUI gui) {
+            throw new UnsupportedOperationException("Use TopazUI.addHistory to add history entries");
+        }
+
+        @Override
+        public void addLast(TopazUI gui) {
+            throw new UnsupportedOperationException("Use TopazUI.addHistory to add history entries");
+        }
+    }
+
+    /**
+     * 在旧版本中不可用的事件，因此请使用单独的监听器...
+     */
+    private static class ItemSwapGuiListener extends OptionalListener {
+        private final GuiListener listener;
+
+        private ItemSwapGuiListener(GuiListener listener) {
+            this.listener = listener;
+        }
+
+        @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+        public void onInventoryMoveItem(PlayerSwapHandItemsEvent event) {
+            Inventory topInventory = event.getPlayer().getOpenInventory().getTopInventory();
+            TopazUI gui = listener.getGui(topInventory);
+            if (gui != null && topInventory.equals(gui.getInventory(event.getPlayer()))) {
+                event.setCancelled(true);
+            }
+        }
+    }
+
+    /**
+     * 实体单独卸载的事件只在新版本中可用
+     */
+    private static class EntitiesUnloadGuiListener extends OptionalListener {
+        private final GuiListener listener;
+
+        private EntitiesUnloadGuiListener(GuiListener listener) {
+            this.listener = listener;
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onEntitiesUnload(EntitiesUnloadEvent event) {
+            if (!OWNER_INDEX.isEmpty()) {
+                listener.destroyOwned(OWNER_INDEX.get(event.getEntities()));
             }
         }
     }
@@ -1394,7 +2453,7 @@ public class TopazUI implements Listener {
      * 用于 GUI 的虚拟 InventoryHolder
      */
     public static class Holder implements InventoryHolder {
-        private TopazUI gui;
+        private volatile TopazUI gui;
 
         public Holder(TopazUI gui) {
             this.gui = gui;
@@ -1402,12 +2461,25 @@ public class TopazUI implements Listener {
 
         @Override
         public Inventory getInventory() {
-            return gui.getInventory();
+            TopazUI gui = this.gui;
+            return gui != null ? gui.getInventory() : null;
         }
 
+        /**
+         * 获取此持有者所属的 GUI
+         * @return GUI，如果背包已被放回背包池中则返回 <code>null</code>
+         */
         public TopazUI getGui() {
             return gui;
         }
+
+        /**
+         * 将背包重新绑定到新的 GUI。放回背包池时解除绑定，从池中取出时绑定到新的 GUI
+         * @param gui   新的 GUI，或 <code>null</code> 以解除绑定
+         */
+        void setGui(TopazUI gui) {
+            this.gui = gui;
+        }
     }
 
     public static interface CloseAction {
@@ -1524,45 +2596,81 @@ public class TopazUI implements Listener {
      * @return      所有占位符都被替换后的文本
      */
     public String replaceVars(HumanEntity player, String text, String... replacements) {
-        Map<String, String> map = new LinkedHashMap<>();
-        for (int i = 0; i + 1 < replacements.length; i += 2) {
-            map.putIfAbsent(replacements[i], replacements[i + 1]);
+        String replaced = text;
+        if (text.indexOf('%') >= 0) {
+            PlaceholderTemplate template = PlaceholderTemplate.compile(text);
+            if (template.hasPlaceholders()) {
+                replaced = template.render(key -> resolvePlaceholder(player, key, replacements));
+            }
         }
+        return replaced.indexOf('&') < 0 ? replaced : ChatColor.translateAlternateColorCodes('&', replaced);
+    }
 
-        map.putIfAbsent("plugin", plugin.getName());
-        try {
-            map.putIfAbsent("owner", owner instanceof Nameable ? ((Nameable) owner).getCustomName() : "");
-        } catch (NoSuchMethodError | NoClassDefFoundError e) {
-            map.putIfAbsent("owner", owner instanceof Entity ? ((Entity) owner).getCustomName() : "");
+    /**
+     * 查询占位符的值，附加的替换项优先于内置占位符
+     * @param player        查看GUI的玩家
+     * @param key           占位符名称，不包含 <code>%</code>
+     * @param replacements  额外的替换项。i = 占位符，i+1 = 替换项
+     * @return 占位符的值，如果是未知的占位符则返回 <code>null</code>
+     */
+    private String resolvePlaceholder(HumanEntity player, String key, String[] replacements) {
+        for (int i = 0; i + 1 < replacements.length; i += 2) {
+            if (key.equals(replacements[i])) {
+                return replacements[i + 1] != null ? replacements[i + 1] : "null";
+            }
         }
-        map.putIfAbsent("title", title);
-        map.putIfAbsent("page", String.valueOf(getPageNumber(player) + 1));
-        map.putIfAbsent("nextpage", getPageNumber(player) + 1 < getPageAmount(player) ? String.valueOf(getPageNumber(player) + 2) : "none");
-        map.putIfAbsent("prevpage", getPageNumber(player) > 0 ? String.valueOf(getPageNumber(player)) : "none");
-        map.putIfAbsent("pages", String.valueOf(getPageAmount(player)));
-
-        return ChatColor.translateAlternateColorCodes('&', replace(text, map));
+        if (!isBuiltinPlaceholder(key)) {
+            return null;
+        }
+        String value = getPlaceholderValue(player, key);
+        return value != null ? value : "null";
     }
 
     /**
-     * 在字符串中替换占位符
-     * @param string        需要进行替换的字符串
-     * @param replacements  用于替换占位符的内容。第n个索引是占位符，第n+1个是值。
-     * @return 所有占位符都被替换后的字符串（使用配置的占位符前缀和后缀）
+     * 获取 {@link #replaceVars(HumanEntity, String, String...)} 中内置占位符的当前值
+     * @param player    查看GUI的玩家
+     * @param key       占位符名称，不包含 <code>%</code>
+     * @return 占位符的值，如果不是内置占位符则返回 <code>null</code>
      */
-    private String replace(String string, Map<String, String> replacements) {
-        for (Map.Entry<String, String> entry : replacements.entrySet()) {
-            if (entry.getKey() == null) {
-                continue;
-            }
-            String placeholder = "%" + entry.getKey() + "%";
-            Pattern pattern = PATTERN_CACHE.get(placeholder);
-            if (pattern == null) {
-                PATTERN_CACHE.put(placeholder, pattern = Pattern.compile(placeholder, Pattern.LITERAL));
+    String getPlaceholderValue(HumanEntity player, String key) {
+        switch (key) {
+            case "plugin":
+                return plugin.getName();
+            case "owner":
+                try {
+                    return owner instanceof Nameable ? ((Nameable) owner).getCustomName() : "";
+                } catch (NoSuchMethodError | NoClassDefFoundError e) {
+                    return owner instanceof Entity ? ((Entity) owner).getCustomName() : "";
+                }
+            case "title":
+                return title;
+            case "page":
+                return String.valueOf(getPageNumber(player) + 1);
+            case "nextpage":
+                int page = getPageNumber(player);
+                return page + 1 < getPageAmount(player) ? String.valueOf(page + 2) : "none";
+            case "prevpage":
+                int current = getPageNumber(player);
+                return current > 0 ? String.valueOf(current) : "none";
+            case "pages":
+                return String.valueOf(getPageAmount(player));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 检查占位符是否是 {@link #replaceVars(HumanEntity, String, String...)} 的内置占位符
+     * @param key   占位符名称，不包含 <code>%</code>
+     * @return 是否是内置占位符
+     */
+    static boolean isBuiltinPlaceholder(String key) {
+        for (String builtin : BUILTIN_PLACEHOLDERS) {
+            if (builtin.equals(key)) {
+                return true;
             }
-            string = pattern.matcher(string).replaceAll(Matcher.quoteReplacement(entry.getValue() != null ? entry.getValue() : "null"));
         }
-        return string;
+        return false;
     }
 
     /**
@@ -1688,4 +2796,30 @@ public class TopazUI implements Listener {
             Inventory create(TopazUI gui, HumanEntity who, T t);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 默认的背包创建器，使用 {@link Holder} 作为持有者。只有它创建的背包可以放入背包池。
+     */
+    private static class DefaultInventoryCreator extends InventoryCreator {
+        private final JavaPlugin plugin;
+
+        private DefaultInventoryCreator(JavaPlugin plugin) {
+            super((gui, who, type) -> plugin.getServer().createInventory(new Holder(gui), type, gui.replaceVars(who, gui.getTitle())),
+                    (gui, who, size) -> plugin.getServer().createInventory(new Holder(gui), size, gui.replaceVars(who, gui.getTitle())));
+            this.plugin = plugin;
+        }
+
+        /**
+         * 使用已替换占位符的标题创建背包
+         * @param gui   TopazUI实例
+         * @param title 背包的标题
+         * @return 创建的背包
+         */
+        private Inventory create(TopazUI gui, String title) {
+            if (gui.slots.length != gui.inventoryType.getDefaultSize()) {
+                return plugin.getServer().createInventory(new Holder(gui), gui.slots.length, title);
+            }
+            return plugin.getServer().createInventory(new Holder(gui), gui.inventoryType, title);
+        }
+    }
+}
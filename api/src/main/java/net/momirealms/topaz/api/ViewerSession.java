@@ -0,0 +1,62 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 一个查看者在某个 GUI 中的所有状态：背包、页面编号和数量、上次渲染的内容以及进行中的异步渲染。
+ * 每个事件只需查找一次会话，关闭 GUI 时也只需移除一个对象。
+ * 使用共享背包时，所有查看者共用一个会话。
+ */
+final class ViewerSession {
+    volatile Inventory inventory;
+    volatile int pageNumber = 0;
+    /** 页面数量，-1 表示尚未计算 */
+    volatile int pageAmount = -1;
+    /** 计算页面数量时 GUI 内容的版本 */
+    volatile long pageVersion = -1;
+    /** 上次写入背包的内容 */
+    volatile ItemStack[] frame;
+    /** 背包在背包池中的键，如果背包不应放回池中则为 <code>null</code> */
+    volatile InventoryPool.Key poolKey;
+    private final AtomicReference<RenderJob> renderJob = new AtomicReference<>();
+
+    /**
+     * 开始新的异步渲染，取消之前进行中的渲染
+     * @param job   新的渲染
+     */
+    void startRenderJob(RenderJob job) {
+        RenderJob previous = renderJob.getAndSet(job);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+    }
+
+    /**
+     * 结束异步渲染
+     * @param job   要结束的渲染
+     * @return 如果该渲染仍是最新的渲染，则返回 <code>true</code>
+     */
+    boolean finishRenderJob(RenderJob job) {
+        return renderJob.compareAndSet(job, null);
+    }
+
+    /**
+     * 取消进行中的异步渲染
+     */
+    void cancelRenderJob() {
+        RenderJob previous = renderJob.getAndSet(null);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+    }
+
+    /**
+     * 一次异步渲染，被更新的渲染取代时会被取消
+     */
+    static final class RenderJob {
+        volatile boolean cancelled = false;
+    }
+}
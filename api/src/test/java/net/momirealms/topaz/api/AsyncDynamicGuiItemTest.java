@@ -0,0 +1,95 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class AsyncDynamicGuiItemTest {
+
+    private static GuiItem item(char c) {
+        return new StaticGuiItem(c, null);
+    }
+
+    @Test
+    void failedQueryIsRetried() {
+        AtomicInteger queries = new AtomicInteger();
+        GuiItem loading = item('l');
+        AsyncDynamicGuiItem item = new AsyncDynamicGuiItem('a', loading, (HumanEntity who) -> {
+            queries.incrementAndGet();
+            CompletableFuture<GuiItem> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("test"));
+            return future;
+        });
+        HumanEntity viewer = TestViewers.viewer();
+
+        item.update(viewer);
+        assertEquals(1, queries.get());
+        assertSame(loading, item.getCachedItem(viewer));
+
+        // 失败的结果只使用一次，之后重新查询
+        item.refresh(viewer);
+        assertEquals(1, queries.get());
+        item.refresh(viewer);
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    void failedQueryKeepsPreviousResult() {
+        GuiItem result = item('r');
+        AtomicInteger queries = new AtomicInteger();
+        AsyncDynamicGuiItem item = new AsyncDynamicGuiItem('a', item('l'), (HumanEntity who) -> {
+            if (queries.getAndIncrement() == 0) {
+                return CompletableFuture.completedFuture(result);
+            }
+            CompletableFuture<GuiItem> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("test"));
+            return future;
+        });
+        HumanEntity viewer = TestViewers.viewer();
+
+        item.update(viewer);
+        assertSame(result, item.getCachedItem(viewer));
+        item.update(viewer);
+        assertEquals(2, queries.get());
+        assertSame(result, item.getCachedItem(viewer));
+    }
+
+    @Test
+    void nullFutureIsRetried() {
+        AtomicInteger queries = new AtomicInteger();
+        GuiItem loading = item('l');
+        AsyncDynamicGuiItem item = new AsyncDynamicGuiItem('a', loading, (HumanEntity who) -> {
+            queries.incrementAndGet();
+            return null;
+        });
+        HumanEntity viewer = TestViewers.viewer();
+
+        item.update(viewer);
+        assertSame(loading, item.getCachedItem(viewer));
+        item.refresh(viewer);
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    void pendingQueryIsRetriedAfterTtl() throws InterruptedException {
+        AtomicInteger queries = new AtomicInteger();
+        AsyncDynamicGuiItem item = new AsyncDynamicGuiItem('a', item('l'), (HumanEntity who) -> {
+            queries.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        item.setCacheTtl(20);
+        HumanEntity viewer = TestViewers.viewer();
+
+        item.update(viewer);
+        item.refresh(viewer);
+        assertEquals(1, queries.get());
+        Thread.sleep(30);
+        item.refresh(viewer);
+        assertEquals(2, queries.get());
+    }
+}
@@ -0,0 +1,117 @@
+package net.momirealms.topaz.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 模拟 Folia 上多个区域线程同时绘制同一个物品组，而另一个线程在修改它
+ */
+class GuiItemGroupConcurrencyTest {
+    private static final int READERS = 4;
+    private static final int ROUNDS = 2000;
+    private static final int BATCH = 3;
+
+    private static GuiItemGroup group() {
+        GuiItemGroup group = new GuiItemGroup('g');
+        int[] slots = new int[45];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = i;
+        }
+        group.setSlots(slots);
+        return group;
+    }
+
+    private static List<GuiItem> batch(char slotChar, int size) {
+        List<GuiItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            items.add(new StaticGuiItem(slotChar, null));
+        }
+        return items;
+    }
+
+    /**
+     * 在读取线程不断绘制的同时运行写入操作，读取线程中的失败会使测试失败
+     */
+    private static void runConcurrently(Runnable writer, Runnable reader) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(READERS);
+        AtomicBoolean done = new AtomicBoolean(false);
+        CountDownLatch started = new CountDownLatch(READERS);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                readers.add(executor.submit(() -> {
+                    started.countDown();
+                    while (!done.get()) {
+                        reader.run();
+                    }
+                    return null;
+                }));
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            try {
+                writer.run();
+            } finally {
+                done.set(true);
+            }
+            for (Future<?> future : readers) {
+                // 读取线程中的断言失败或异常会在这里重新抛出
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void batchesArePublishedAtomically() throws Exception {
+        GuiItemGroup group = group();
+        runConcurrently(() -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                group.addItems(batch('a', BATCH));
+            }
+        }, () -> {
+            List<GuiItem> items = group.getItems();
+            assertEquals(0, items.size() % BATCH);
+            for (int slot = 0; slot < 45; slot++) {
+                GuiItem item = group.getItem(slot, 0);
+                if (item != null) {
+                    assertEquals('a', item.getSlotChar());
+                }
+            }
+        });
+        assertEquals(ROUNDS * BATCH, group.size());
+    }
+
+    @Test
+    void readersNeverSeePartialReplacement() throws Exception {
+        GuiItemGroup group = group();
+        group.replaceAll(batch('a', 10));
+        runConcurrently(() -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                group.replaceAll(batch((char) ('a' + i % 26), 10));
+            }
+        }, () -> {
+            List<GuiItem> items = group.getItems();
+            assertEquals(10, items.size());
+            char slotChar = items.get(0).getSlotChar();
+            for (GuiItem item : items) {
+                assertNotNull(item);
+                assertEquals(slotChar, item.getSlotChar());
+                assertTrue(Arrays.equals(group.getSlots(), item.getSlots()));
+            }
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package net.momirealms.topaz.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GuiItemGroupEditTest {
+
+    private static final class CountingItem extends StaticGuiItem {
+        private int slotAssignments = 0;
+
+        private CountingItem() {
+            super('c', null);
+        }
+
+        @Override
+        public void setSlots(int[] slots) {
+            slotAssignments++;
+            super.setSlots(slots);
+        }
+    }
+
+    @Test
+    void editOnlyAssignsNewItems() {
+        GuiItemGroup group = new GuiItemGroup('g');
+        int[] slots = {0, 1, 2};
+        group.setSlots(slots);
+        CountingItem first = new CountingItem();
+        group.addItems(first);
+        assertEquals(1, first.slotAssignments);
+
+        CountingItem second = new CountingItem();
+        group.edit(items -> items.add(second));
+        group.edit(items -> items.add(0, items.remove(1)));
+
+        assertEquals(1, first.slotAssignments);
+        assertEquals(1, second.slotAssignments);
+        assertArrayEquals(slots, second.getSlots());
+    }
+}
@@ -0,0 +1,51 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class GuiItemGroupViewTest {
+
+    private static StaticGuiItem item(char c) {
+        return new StaticGuiItem(c, null);
+    }
+
+    private static GuiItemGroupView view(GuiItem... items) {
+        GuiItemGroupView view = new GuiItemGroupView('v', new GuiItemGroup('s', items), item -> String.valueOf(item.getSlotChar()));
+        view.setSlots(new int[]{0, 1});
+        return view;
+    }
+
+    @Test
+    void getItemWithoutViewerUsesUnfilteredItems() {
+        StaticGuiItem a = item('a');
+        StaticGuiItem b = item('b');
+        StaticGuiItem c = item('c');
+        GuiItemGroupView view = view(c, a, b);
+        view.setComparator(Comparator.comparing(item -> String.valueOf(item.getSlotChar())));
+
+        assertSame(a, view.getItem(0));
+        assertSame(b, view.getItem(1));
+        assertSame(c, view.getItem(0, 1));
+        assertNull(view.getItem(1, 1));
+    }
+
+    @Test
+    void getItemWithoutViewerIgnoresViewerQueries() {
+        StaticGuiItem apple = item('a');
+        StaticGuiItem banana = item('b');
+        GuiItemGroupView view = view(apple, banana);
+        HumanEntity viewer = TestViewers.viewer();
+        view.setQuery(viewer, "b");
+
+        assertEquals(1, view.size(viewer));
+        assertSame(banana, view.getItem(viewer, 0, 0));
+        assertSame(apple, view.getItem(0));
+        assertEquals(2, view.size());
+    }
+}
@@ -0,0 +1,80 @@
+package net.momirealms.topaz.api;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 每次打开菜单时准备布局和物品的耗时与分配量：原先每次解析行设置并扫描槽位，现在复用编译好的模板。
+ * 不随普通测试运行，使用 <code>gradlew :api:benchmark</code> 运行。
+ */
+@Tag("benchmark")
+class GuiTemplateBenchmark {
+    private static final String[] ROWS = {
+            "ggggggggg",
+            "ggggggggg",
+            "ggggggggg",
+            "ggggggggg",
+            "p  cic  n"
+    };
+    private static final String ITEM_CHARS = "gpnci";
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    /** 原先的方式：填充行设置后为每个物品扫描一次槽位 */
+    private static int openByParsing() {
+        char[] slots = GuiTemplateTest.legacySlots(9, ROWS);
+        int sum = 0;
+        for (char slotChar : ITEM_CHARS.toCharArray()) {
+            sum += GuiTemplateTest.legacyGetSlots(slots, slotChar).length;
+            sum += new StaticGuiItem(slotChar, null).getSlotChar();
+        }
+        return sum;
+    }
+
+    /** 现在的方式：只使用模板的物品工厂创建物品 */
+    private static int openFromTemplate(GuiTemplate template) {
+        int sum = 0;
+        for (Supplier<? extends GuiItem> factory : template.getItemFactories().values()) {
+            GuiItem item = factory.get();
+            sum += template.getSlots(item.getSlotChar()).length;
+            sum += item.getSlotChar();
+        }
+        return sum;
+    }
+
+    private static void report(String name, Supplier<Integer> open) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += open.get();
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += open.get();
+        }
+        long time = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.printf("%s: %.0f ns/open, %d bytes/open (checksum %d)%n",
+                name, time / (double) ITERATIONS, allocated / ITERATIONS, sink);
+    }
+
+    @Test
+    void openFortyFiveSlotMenu() {
+        GuiTemplate template = new GuiTemplate(ROWS);
+        for (char slotChar : ITEM_CHARS.toCharArray()) {
+            template = template.withItem(slotChar, () -> new StaticGuiItem(slotChar, null));
+        }
+        GuiTemplate compiled = template;
+        assertEquals(openByParsing(), openFromTemplate(compiled));
+
+        report("parse per open", GuiTemplateBenchmark::openByParsing);
+        report("template", () -> openFromTemplate(compiled));
+    }
+}
@@ -0,0 +1,119 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.event.inventory.InventoryType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GuiTemplateTest {
+
+    /** 原先 TopazUI 构造函数中填充行设置的实现 */
+    static char[] legacySlots(int width, String... rows) {
+        StringBuilder slotsBuilder = new StringBuilder();
+        for (String row : rows) {
+            if (row.length() < width) {
+                double side = (width - row.length()) / 2.0;
+                for (int i = 0; i < Math.floor(side); i++) {
+                    slotsBuilder.append(" ");
+                }
+                slotsBuilder.append(row);
+                for (int i = 0; i < Math.ceil(side); i++) {
+                    slotsBuilder.append(" ");
+                }
+            } else if (row.length() == width) {
+                slotsBuilder.append(row);
+            } else {
+                slotsBuilder.append(row, 0, width);
+            }
+        }
+        return slotsBuilder.toString().toCharArray();
+    }
+
+    /** 原先 TopazUI.getSlots 的实现 */
+    static int[] legacyGetSlots(char[] slots, char slotChar) {
+        ArrayList<Integer> slotList = new ArrayList<>();
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == slotChar) {
+                slotList.add(i);
+            }
+        }
+        return slotList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    void shortRowsAreCenteredLikeBefore() {
+        String[] rows = {"abc", "ab", "", "abcdefghi", "a"};
+        GuiTemplate template = new GuiTemplate(rows);
+
+        assertEquals(9, template.getWidth());
+        assertEquals(45, template.getSize());
+        assertArrayEquals(legacySlots(9, rows), template.getSlotChars());
+        assertEquals("   ab    ", new String(template.getSlotChars(), 9, 9));
+    }
+
+    @Test
+    void widthSelectsInventoryType() {
+        assertEquals(InventoryType.DISPENSER, new GuiTemplate("a", "bb", "ccc").getInventoryType());
+        assertEquals(InventoryType.HOPPER, new GuiTemplate("abcd").getInventoryType());
+        assertEquals(5, new GuiTemplate("abcd").getWidth());
+        assertEquals(InventoryType.CHEST, new GuiTemplate("abcdef").getInventoryType());
+        assertArrayEquals(legacySlots(5, "abcd"), new GuiTemplate("abcd").getSlotChars());
+        assertThrows(IllegalArgumentException.class, () -> new GuiTemplate("abcdefghij"));
+    }
+
+    @Test
+    void getSlotsMatchesScanPerChar() {
+        GuiTemplate template = new GuiTemplate("aaaaaaaaa", "a  bcb  a", "aaaaaaaaa");
+        char[] slots = template.getSlotChars();
+        for (char slotChar : "abc x".toCharArray()) {
+            assertArrayEquals(legacyGetSlots(slots, slotChar), template.getSlots(slotChar));
+        }
+        assertEquals(0, template.getSlots('x').length);
+        // 每次返回同一个编译好的数组
+        assertSame(template.getSlots('a'), template.getSlots('a'));
+    }
+
+    @Test
+    void derivedTemplatesShareCompiledLayout() {
+        GuiTemplate layout = new GuiTemplate("  a b  ");
+        Supplier<GuiItem> first = () -> new StaticGuiItem('a', null);
+        Supplier<GuiItem> second = () -> new StaticGuiItem('b', null);
+        Supplier<GuiItem> replacement = () -> new StaticGuiItem('a', null);
+
+        GuiTemplate withItems = layout.withItem('a', first).withItem('b', second);
+        GuiTemplate replaced = withItems.withItem('a', replacement);
+
+        assertSame(layout.getSlotChars(), withItems.getSlotChars());
+        assertSame(layout.getSlotChars(), replaced.getSlotChars());
+        assertSame(layout.getSlots('a'), replaced.getSlots('a'));
+        assertTrue(layout.getItemFactories().isEmpty());
+        assertEquals(2, withItems.getItemFactories().size());
+
+        // 替换物品保留原来的顺序，且不影响原模板
+        Iterator<Supplier<? extends GuiItem>> factories = replaced.getItemFactories().values().iterator();
+        assertSame(replacement, factories.next());
+        assertSame(second, factories.next());
+        assertSame(first, withItems.getItemFactories().values().iterator().next());
+    }
+
+    @Test
+    void staticItemFactoryCreatesNewItems() {
+        GuiTemplate template = new GuiTemplate("aaa").withItem('a', null, null, "text");
+        Supplier<? extends GuiItem> factory = template.getItemFactories().values().iterator().next();
+        List<GuiItem> items = List.of(factory.get(), factory.get());
+
+        assertNotSame(items.get(0), items.get(1));
+        assertEquals('a', items.get(0).getSlotChar());
+        assertEquals(0, items.get(0).getSlots().length);
+    }
+}
@@ -0,0 +1,132 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PagedGuiItemGroupTest {
+
+    private static final class CountingProvider implements PagedGuiItemGroup.DataProvider<Integer> {
+        private final int size;
+        private final List<Integer> fetchedOffsets = new ArrayList<>();
+
+        private CountingProvider(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public List<Integer> fetch(int offset, int limit) {
+            fetchedOffsets.add(offset);
+            List<Integer> entries = new ArrayList<>();
+            for (int i = offset; i < Math.min(size, offset + limit); i++) {
+                entries.add(i);
+            }
+            return entries;
+        }
+    }
+
+    private static PagedGuiItemGroup<Integer> group(CountingProvider provider) {
+        PagedGuiItemGroup<Integer> group = new PagedGuiItemGroup<>('p', provider, i -> new StaticGuiItem('i', null));
+        group.setPrefetchExecutor(Runnable::run);
+        group.setSlots(new int[]{0, 1, 2});
+        return group;
+    }
+
+    @Test
+    void renderingPagePrefetchesNeighbours() {
+        CountingProvider provider = new CountingProvider(12);
+        PagedGuiItemGroup<Integer> group = group(provider);
+
+        group.getItem(0, 0);
+        assertEquals(List.of(0, 3), provider.fetchedOffsets);
+
+        // 下一页已被预取，翻页时只加载新的相邻页面
+        group.getItem(0, 1);
+        group.getItem(1, 1);
+        assertEquals(List.of(0, 3, 6), provider.fetchedOffsets);
+
+        group.getItem(0, 3);
+        assertEquals(List.of(0, 3, 6, 9), provider.fetchedOffsets);
+    }
+
+    @Test
+    void setSlotsKeepsPagesWhenUnchanged() {
+        CountingProvider provider = new CountingProvider(6);
+        PagedGuiItemGroup<Integer> group = group(provider);
+        group.setPrefetchPages(0);
+
+        group.getItem(0, 0);
+        group.setSlots(new int[]{0, 1, 2});
+        group.getItem(0, 0);
+        assertEquals(List.of(0), provider.fetchedOffsets);
+
+        group.setSlots(new int[]{0, 1});
+        group.getItem(0, 0);
+        assertEquals(List.of(0, 0), provider.fetchedOffsets);
+    }
+
+    @Test
+    void viewersOnDifferentPagesKeepTheirPages() {
+        CountingProvider provider = new CountingProvider(30);
+        PagedGuiItemGroup<Integer> group = group(provider);
+        HumanEntity first = TestViewers.viewer();
+        HumanEntity second = TestViewers.viewer();
+
+        group.getItem(first, 0, 0);
+        group.getItem(second, 0, 5);
+        int fetched = provider.fetchedOffsets.size();
+        for (int i = 0; i < 5; i++) {
+            group.getItem(first, 0, 0);
+            group.getItem(second, 0, 5);
+        }
+        assertEquals(fetched, provider.fetchedOffsets.size());
+    }
+
+    @Test
+    void noPrefetchBeforeAddedToGui() {
+        CountingProvider provider = new CountingProvider(12);
+        PagedGuiItemGroup<Integer> group = new PagedGuiItemGroup<>('p', provider, i -> new StaticGuiItem('i', null));
+        group.setSlots(new int[]{0, 1, 2});
+
+        group.getItem(0, 0);
+        assertEquals(List.of(0), provider.fetchedOffsets);
+    }
+
+    @Test
+    void addedItemsFollowProviderEntries() {
+        CountingProvider provider = new CountingProvider(4);
+        PagedGuiItemGroup<Integer> group = group(provider);
+        StaticGuiItem button = new StaticGuiItem('b', null);
+        group.addItems(button);
+
+        assertEquals(5, group.size());
+        assertSame(button, group.getItem(1, 1));
+        assertTrue(group.getItems().contains(button));
+    }
+
+    @Test
+    void viewerDependenceDoesNotDependOnLoadedPages() {
+        CountingProvider provider = new CountingProvider(4);
+        PagedGuiItemGroup<Integer> group = new PagedGuiItemGroup<>('p', provider,
+                i -> new DynamicGuiItem('d', (HumanEntity who) -> null));
+        group.setSlots(new int[]{0, 1, 2});
+
+        assertFalse(group.isViewerDependent());
+        group.getItem(0, 0);
+        assertFalse(group.isViewerDependent());
+        group.setViewerDependent(true);
+        assertTrue(group.isViewerDependent());
+    }
+}
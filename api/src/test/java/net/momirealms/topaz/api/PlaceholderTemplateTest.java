@@ -0,0 +1,46 @@
+package net.momirealms.topaz.api;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PlaceholderTemplateTest {
+
+    @Test
+    void rendersPlaceholdersAndKeepsUnknownOnes() {
+        PlaceholderTemplate template = PlaceholderTemplate.compile("Page %page%/%pages% %unknown% 100%");
+        assertEquals("Page 2/5 %unknown% 100%", template.render(key -> {
+            switch (key) {
+                case "page":
+                    return "2";
+                case "pages":
+                    return "5";
+                default:
+                    return null;
+            }
+        }));
+    }
+
+    @Test
+    void textWithoutPercentIsNotCached() {
+        int size = PlaceholderTemplate.getCacheSize();
+        PlaceholderTemplate template = PlaceholderTemplate.compile("plain text " + System.nanoTime());
+        assertFalse(template.hasPlaceholders());
+        assertEquals(size, PlaceholderTemplate.getCacheSize());
+    }
+
+    @Test
+    void frequentlyUsedTemplateSurvivesChurn() {
+        String hot = "Hello %player% " + System.nanoTime();
+        PlaceholderTemplate template = PlaceholderTemplate.compile(hot);
+        for (int i = 0; i < 10000; i++) {
+            PlaceholderTemplate.compile("Timer %time% " + i);
+            if (i % 100 == 0) {
+                assertSame(template, PlaceholderTemplate.compile(hot));
+            }
+        }
+        assertSame(template, PlaceholderTemplate.compile(hot));
+    }
+}
@@ -0,0 +1,73 @@
+package net.momirealms.topaz.api;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 渲染一个 45 个槽位的居中物品组时，查找表与原先逐个扫描槽位的耗时对比。
+ * 不随普通测试运行，使用 <code>gradlew :api:benchmark</code> 运行。
+ */
+@Tag("benchmark")
+class SlotTablesBenchmark {
+    private static final int WIDTH = 9;
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    private static int[] groupSlots() {
+        int[] slots = new int[45];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = i;
+        }
+        return slots;
+    }
+
+    /** 原先的渲染方式：每个槽位扫描三次槽位数组 */
+    private static long renderByScanning(int[] slots) {
+        long sum = 0;
+        for (int slot : slots) {
+            sum += SlotTablesTest.scanSlotIndex(slots, slot)
+                    + SlotTablesTest.scanLineWidth(slots, WIDTH, slot)
+                    + SlotTablesTest.scanLinePosition(slots, WIDTH, slot);
+        }
+        return sum;
+    }
+
+    /** 现在的渲染方式：布局不变时直接查表 */
+    private static long renderWithTables(StaticGuiItem item, GuiItemGroup.RowTable table, int[] slots) {
+        long sum = 0;
+        for (int slot : slots) {
+            sum += item.getSlotIndex(slot) + table.lineWidth(slot) + table.linePosition(slot);
+        }
+        return sum;
+    }
+
+    private static double measure(Runnable render) {
+        for (int i = 0; i < WARMUP; i++) {
+            render.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            render.run();
+        }
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+
+    @Test
+    void renderFortyFiveSlotGroup() {
+        int[] slots = groupSlots();
+        StaticGuiItem item = new StaticGuiItem('g', null);
+        item.setSlots(slots);
+        GuiItemGroup.RowTable table = new GuiItemGroup.RowTable(slots, WIDTH);
+        assertEquals(renderByScanning(slots), renderWithTables(item, table, slots));
+
+        long[] sink = new long[1];
+        double scanning = measure(() -> sink[0] += renderByScanning(slots));
+        double tables = measure(() -> sink[0] += renderWithTables(item, table, slots));
+        double build = measure(() -> sink[0] += new GuiItemGroup.RowTable(slots, WIDTH).lineWidth(0));
+        System.out.printf("45-slot group render: scanning %.0f ns, tables %.0f ns (%.1fx), table build %.0f ns%n",
+                scanning, tables, scanning / tables, build);
+        System.out.println("checksum " + sink[0]);
+    }
+}
@@ -0,0 +1,110 @@
+package net.momirealms.topaz.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 比较预先计算的槽位查找表与原先逐个扫描槽位的结果
+ */
+class SlotTablesTest {
+
+    /** 原先 GuiItem.getSlotIndex 的实现 */
+    static int scanSlotIndex(int[] slots, int slot) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == slot) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** 原先 GuiItemGroup.getLineWidth 的实现 */
+    static int scanLineWidth(int[] slots, int width, int slot) {
+        int row = slot / width;
+        int amount = 0;
+        for (int s : slots) {
+            if (s >= row * width && s < (row + 1) * width) {
+                amount++;
+            }
+        }
+        return amount;
+    }
+
+    /** 原先 GuiItemGroup.getLinePosition 的实现 */
+    static int scanLinePosition(int[] slots, int width, int slot) {
+        int row = slot / width;
+        int position = -1;
+        for (int s : slots) {
+            if (s >= row * width && s < (row + 1) * width) {
+                position++;
+                if (s == slot) {
+                    return position;
+                }
+            }
+        }
+        return position;
+    }
+
+    private static int[] randomSlots(Random random, int size, boolean shuffled) {
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            all.add(i);
+        }
+        Collections.shuffle(all, random);
+        List<Integer> chosen = new ArrayList<>(all.subList(0, random.nextInt(size) + 1));
+        if (!shuffled) {
+            Collections.sort(chosen);
+        }
+        return chosen.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    void rowTableMatchesPreviousComputation() {
+        Random random = new Random(42);
+        int[][] shapes = {{9, 6}, {5, 1}, {3, 3}};
+        for (int[] shape : shapes) {
+            int width = shape[0];
+            for (int i = 0; i < 200; i++) {
+                int[] slots = randomSlots(random, width * shape[1], i % 2 == 1);
+                GuiItemGroup.RowTable table = new GuiItemGroup.RowTable(slots, width);
+                for (int slot : slots) {
+                    assertEquals(scanLineWidth(slots, width, slot), table.lineWidth(slot));
+                    assertEquals(scanLinePosition(slots, width, slot), table.linePosition(slot));
+                }
+            }
+        }
+    }
+
+    @Test
+    void rowTableHandlesGroupTemplateLayout() {
+        // "  ggggg  " 和 "ggggggggg" 两行
+        int[] slots = {2, 3, 4, 5, 6, 9, 10, 11, 12, 13, 14, 15, 16, 17};
+        GuiItemGroup.RowTable table = new GuiItemGroup.RowTable(slots, 9);
+        assertEquals(5, table.lineWidth(2));
+        assertEquals(0, table.linePosition(2));
+        assertEquals(4, table.linePosition(6));
+        assertEquals(9, table.lineWidth(17));
+        assertEquals(8, table.linePosition(17));
+    }
+
+    @Test
+    void slotIndexMatchesLinearScan() {
+        Random random = new Random(7);
+        StaticGuiItem item = new StaticGuiItem('i', null);
+        for (int i = 0; i < 200; i++) {
+            int[] slots = randomSlots(random, 54, i % 2 == 1);
+            item.setSlots(slots);
+            for (int slot = -1; slot <= 55; slot++) {
+                int expected = scanSlotIndex(slots, slot);
+                assertEquals(expected, item.getSlotIndex(slot));
+                assertEquals(expected > -1 ? expected + slots.length * 2 : -1, item.getSlotIndex(slot, 2));
+            }
+        }
+    }
+}
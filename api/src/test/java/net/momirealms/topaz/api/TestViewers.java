@@ -0,0 +1,37 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+/**
+ * 测试用的查看者，只实现了 {@link HumanEntity#getUniqueId()}
+ */
+final class TestViewers {
+
+    private TestViewers() {
+    }
+
+    static HumanEntity viewer() {
+        return viewer(UUID.randomUUID());
+    }
+
+    static HumanEntity viewer(UUID uuid) {
+        return (HumanEntity) Proxy.newProxyInstance(TestViewers.class.getClassLoader(), new Class<?>[]{HumanEntity.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUniqueId":
+                            return uuid;
+                        case "hashCode":
+                            return uuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "TestViewer(" + uuid + ")";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,28 @@
+package net.momirealms.topaz.api;
+
+import org.bukkit.entity.HumanEntity;
+import org.junit.jupiter.api.Test;
+
+import java.util.Deque;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopazUIHistoryTest {
+
+    @Test
+    void missingHistoryIsSharedAndReadOnly() {
+        HumanEntity viewer = TestViewers.viewer();
+        Deque<TopazUI> history = TopazUI.getHistory(viewer);
+
+        assertTrue(history.isEmpty());
+        assertSame(history, TopazUI.getHistory(TestViewers.viewer()));
+        assertSame(history, TopazUI.clearHistory(viewer));
+        assertThrows(UnsupportedOperationException.class, () -> history.add(null));
+        assertThrows(UnsupportedOperationException.class, () -> history.push(null));
+        assertTrue(history.isEmpty());
+        assertFalse(TopazUI.goBack(viewer));
+    }
+}
@@ -0,0 +1,137 @@
+package net.momirealms.topaz.bukkit.storage
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * 单个存储的快照文件和日志文件。
+ * 每条记录为 [槽位 int][长度 int][数据]，长度为 0 表示该槽位已清空。
+ * 修改只追加到日志中，压缩时将完整内容写入临时文件后原子替换快照，再截断日志。
+ * 只应在写入线程上访问。
+ */
+internal class StorageJournal(
+    private val snapshotFile : File,
+    private val journalFile : File
+) {
+
+    private var state : MutableMap<Int, ByteArray>? = null
+    private var journalEntries = 0
+
+    fun load() : Map<Int, ByteArray> {
+        return HashMap(getState())
+    }
+
+    fun append(
+        changes : Map<Int, ByteArray>
+    ) {
+        val state = getState()
+        FileOutputStream(journalFile, true).use { file ->
+            val out = DataOutputStream(BufferedOutputStream(file))
+            for ((slot, data) in changes) {
+                out.writeInt(slot)
+                out.writeInt(data.size)
+                out.write(data)
+            }
+            out.flush()
+            file.fd.sync()
+        }
+        for ((slot, data) in changes) {
+            if (data.isEmpty()) {
+                state.remove(slot)
+            } else {
+                state[slot] = data
+            }
+        }
+        journalEntries += changes.size
+    }
+
+    fun getJournalEntries() : Int {
+        return journalEntries
+    }
+
+    fun compact() {
+        val state = getState()
+        if (journalEntries == 0 && snapshotFile.exists()) {
+            return
+        }
+        val temp = File(snapshotFile.parentFile, snapshotFile.name + ".tmp")
+        FileOutputStream(temp).use { file ->
+            val out = DataOutputStream(BufferedOutputStream(file))
+            for ((slot, data) in state) {
+                out.writeInt(slot)
+                out.writeInt(data.size)
+                out.write(data)
+            }
+            out.flush()
+            file.fd.sync()
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        // 在此之前崩溃时，日志会在新的快照上重放一次，结果相同
+        RandomAccessFile(journalFile, "rw").use { it.setLength(0) }
+        journalEntries = 0
+    }
+
+    private fun getState() : MutableMap<Int, ByteArray> {
+        state?.let { return it }
+        val loaded = HashMap<Int, ByteArray>()
+        read(snapshotFile, loaded)
+        val validLength = read(journalFile, loaded)
+        if (journalFile.exists() && journalFile.length() > validLength) {
+            // 上次写入时崩溃留下的不完整记录
+            RandomAccessFile(journalFile, "rw").use { it.setLength(validLength) }
+        }
+        state = loaded
+        return loaded
+    }
+
+    /**
+     * 读取文件中的所有完整记录
+     * @return 完整记录占用的字节数
+     */
+    private fun read(
+        file : File,
+        into : MutableMap<Int, ByteArray>
+    ) : Long {
+        if (!file.exists()) {
+            return 0
+        }
+        var validLength = 0L
+        DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+            try {
+                while (true) {
+                    val slot = input.readInt()
+                    val length = input.readInt()
+                    if (slot < 0 || length < 0 || length > MAX_RECORD_SIZE) {
+                        break
+                    }
+                    val data = ByteArray(length)
+                    input.readFully(data)
+                    if (length == 0) {
+                        into.remove(slot)
+                    } else {
+                        into[slot] = data
+                    }
+                    if (file == journalFile) {
+                        journalEntries++
+                    }
+                    validLength += 8 + length
+                }
+            } catch (ignored : EOFException) {
+            }
+        }
+        return validLength
+    }
+
+    companion object {
+        private const val MAX_RECORD_SIZE = 16 * 1024 * 1024
+    }
+}
@@ -0,0 +1,351 @@
+package net.momirealms.topaz.bukkit.storage
+
+import de.tr7zw.changeme.nbtapi.NBT
+import net.momirealms.topaz.api.GuiStorageItem
+import org.bukkit.Material
+import org.bukkit.event.EventHandler
+import org.bukkit.event.EventPriority
+import org.bukkit.event.Listener
+import org.bukkit.event.server.PluginDisableEvent
+import org.bukkit.inventory.Inventory
+import org.bukkit.inventory.ItemStack
+import org.bukkit.plugin.java.JavaPlugin
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.Base64
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.IntConsumer
+import java.util.logging.Level
+
+/**
+ * 将 [GuiStorageItem] 的存储保存到本地文件。
+ * 只记录被修改的槽位，修改会在 [flushDelay] 毫秒内合并，然后在单独的写入线程上序列化并追加到日志中。
+ * 日志超过 [compactThreshold] 条记录时会被压缩为快照。
+ * 不再使用的存储应通过 [unload] 或 [unbind] 释放，否则其内容会一直保留在内存中。
+ * 插件被禁用时会在 [closeTimeout] 毫秒内尽量写入所有待保存的修改，超时后记录仍未保存的存储。
+ * 存储的 ID 会被编码为文件名，因此可以包含任意字符。
+ */
+class StoragePersistence(
+    private val plugin : JavaPlugin,
+    private val directory : File,
+    private val flushDelay : Long = 1000L,
+    private val compactThreshold : Int = 512,
+    private val closeTimeout : Long = 3000L
+) : Listener {
+
+    private val executor = ScheduledThreadPoolExecutor(1) { runnable ->
+        // 守护线程不会阻止服务器关闭，插件被禁用时的 close() 会写入剩余的修改
+        Thread(runnable, "Topaz Storage Writer").apply { isDaemon = true }
+    }.apply {
+        executeExistingDelayedTasksAfterShutdownPolicy = false
+    }
+    private val journals = HashMap<String, StorageJournal>()
+    private val pending = ConcurrentHashMap<String, MutableMap<Int, SlotChange>>()
+    private val scheduled = AtomicBoolean(false)
+    /** 写入线程当前正在保存或压缩的存储 */
+    @Volatile
+    private var writing : String? = null
+
+    init {
+        directory.mkdirs()
+        plugin.server.pluginManager.registerEvents(this, plugin)
+    }
+
+    /**
+     * 读取保存的内容到存储中，并在存储被 [item] 修改时自动保存。
+     * 会阻塞当前线程直到读取完成，不应在主线程上调用，请使用 [bindAsync]。
+     */
+    fun bind(
+        id : String,
+        item : GuiStorageItem
+    ) {
+        load(id, item.storage)
+        item.storageListener = IntConsumer { index -> markDirty(id, item.storage, index) }
+    }
+
+    /**
+     * 在写入线程上读取保存的内容，然后在主线程（Folia 上为全局区域线程）上写入存储并开始自动保存
+     */
+    fun bindAsync(
+        id : String,
+        item : GuiStorageItem
+    ) : CompletableFuture<Void> {
+        return loadAsync(id, item.storage).thenRun {
+            item.storageListener = IntConsumer { index -> markDirty(id, item.storage, index) }
+        }
+    }
+
+    /**
+     * 停止自动保存 [item] 的存储，然后释放它
+     */
+    fun unbind(
+        id : String,
+        item : GuiStorageItem
+    ) : CompletableFuture<Void> {
+        item.storageListener = null
+        return unload(id)
+    }
+
+    /**
+     * 读取保存的内容到存储中，会包含尚未写入的修改。
+     * 会阻塞当前线程直到读取完成，不应在主线程上调用，请使用 [loadAsync]。
+     */
+    fun load(
+        id : String,
+        storage : Inventory
+    ) {
+        apply(storage, executor.submit(Callable { read(id) }).get())
+    }
+
+    /**
+     * 在写入线程上读取保存的内容，然后在主线程（Folia 上为全局区域线程）上写入存储
+     */
+    fun loadAsync(
+        id : String,
+        storage : Inventory
+    ) : CompletableFuture<Void> {
+        val future = CompletableFuture<Void>()
+        executor.execute {
+            try {
+                val contents = read(id)
+                runSync {
+                    try {
+                        apply(storage, contents)
+                        future.complete(null)
+                    } catch (t : Throwable) {
+                        future.completeExceptionally(t)
+                    }
+                }
+            } catch (t : Throwable) {
+                future.completeExceptionally(t)
+            }
+        }
+        return future
+    }
+
+    /**
+     * 写入存储所有待保存的修改并压缩其日志，然后从内存中移除其内容。之后的修改会重新读取文件。
+     */
+    fun unload(
+        id : String
+    ) : CompletableFuture<Void> {
+        val future = CompletableFuture<Void>()
+        executor.execute {
+            try {
+                writePending(id)
+                journals.remove(id)?.compact()
+                future.complete(null)
+            } catch (e : IOException) {
+                plugin.logger.log(Level.SEVERE, "释放存储 $id 时发生异常！", e)
+                future.completeExceptionally(e)
+            }
+        }
+        return future
+    }
+
+    /**
+     * 只应在写入线程上调用，会先写入该存储待保存的修改
+     */
+    private fun read(
+        id : String
+    ) : Map<Int, ItemStack?> {
+        writePending(id)
+        return journal(id).load().mapValues { deserialize(it.value) }
+    }
+
+    private fun apply(
+        storage : Inventory,
+        contents : Map<Int, ItemStack?>
+    ) {
+        storage.clear()
+        for ((slot, item) in contents) {
+            if (slot < storage.size) {
+                storage.setItem(slot, item)
+            }
+        }
+    }
+
+    private fun runSync(
+        task : Runnable
+    ) {
+        if (FOLIA) {
+            plugin.server.globalRegionScheduler.execute(plugin, task)
+        } else {
+            plugin.server.scheduler.runTask(plugin, task)
+        }
+    }
+
+    /**
+     * 标记存储中的槽位需要保存。物品会在当前线程上复制，序列化在写入线程上进行。
+     */
+    fun markDirty(
+        id : String,
+        storage : Inventory,
+        index : Int
+    ) {
+        val item = storage.getItem(index)?.takeIf { it.type != Material.AIR && it.amount > 0 }?.clone()
+        pending.compute(id) { _, changes ->
+            (changes ?: HashMap()).also { it[index] = SlotChange(item) }
+        }
+        schedule(flushDelay)
+    }
+
+    private fun schedule(
+        delay : Long
+    ) {
+        if (executor.isShutdown) {
+            return
+        }
+        if (delay <= 0) {
+            executor.execute { writePending() }
+        } else if (scheduled.compareAndSet(false, true)) {
+            executor.schedule({ writePending() }, delay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun writePending() {
+        scheduled.set(false)
+        for (id in pending.keys) {
+            writePending(id)
+        }
+    }
+
+    private fun writePending(
+        id : String
+    ) {
+        val changes = pending.remove(id) ?: return
+        writing = id
+        try {
+            val journal = journal(id)
+            journal.append(changes.mapValues { serialize(it.value.item) })
+            if (journal.getJournalEntries() >= compactThreshold) {
+                journal.compact()
+            }
+        } catch (e : IOException) {
+            plugin.logger.log(Level.SEVERE, "保存存储 $id 时发生异常！", e)
+            // 保留失败的修改，除非之后又有新的修改
+            pending.compute(id) { _, newer ->
+                HashMap(changes).also { merged -> newer?.let { merged.putAll(it) } }
+            }
+            schedule(flushDelay)
+        } finally {
+            writing = null
+        }
+    }
+
+    /**
+     * 写入所有待保存的修改并压缩所有日志，然后停止写入线程。
+     * 最多等待 [closeTimeout] 毫秒，避免阻塞正在关闭的服务器，超时后记录仍未保存的存储。
+     */
+    fun close() {
+        if (executor.isShutdown) {
+            return
+        }
+        executor.execute {
+            writePending()
+            for ((id, journal) in journals) {
+                writing = id
+                try {
+                    journal.compact()
+                } catch (e : IOException) {
+                    plugin.logger.log(Level.SEVERE, "压缩存储 $id 时发生异常！", e)
+                } finally {
+                    writing = null
+                }
+            }
+            journals.clear()
+        }
+        executor.shutdown()
+        if (!executor.awaitTermination(closeTimeout, TimeUnit.MILLISECONDS)) {
+            // 写入线程是守护线程，会在服务器关闭前继续写入，已追加到日志的修改不会丢失
+            val unsaved = LinkedHashSet<String>()
+            writing?.let { unsaved.add(it) }
+            unsaved.addAll(pending.keys)
+            plugin.logger.warning("等待存储写入超时，以下 ${unsaved.size} 个存储可能未被完整保存：${unsaved.joinToString()}")
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    fun onPluginDisable(
+        event : PluginDisableEvent
+    ) {
+        if (event.plugin == plugin) {
+            close()
+        }
+    }
+
+    private fun journal(
+        id : String
+    ) : StorageJournal {
+        return journals.getOrPut(id) {
+            val name = fileName(id)
+            StorageJournal(File(directory, "$name.dat"), File(directory, "$name.journal"))
+        }
+    }
+
+    /**
+     * 将 ID 编码为 URL 安全的 Base64（过长时使用 SHA-256），使包含路径分隔符、<code>..</code> 或其他非法字符的 ID 不会离开数据目录。
+     * 旧版本直接使用 ID 作为文件名，如果 ID 本身是合法的文件名，会将旧文件重命名为新的文件名。
+     */
+    private fun fileName(
+        id : String
+    ) : String {
+        // "=" 不会出现在编码结果和旧的文件名中，因此新旧文件名不会冲突
+        val bytes = id.toByteArray(Charsets.UTF_8)
+        val encoded = ENCODER.encodeToString(bytes)
+        // 过长的 ID 使用其哈希值，避免超出文件系统对文件名长度的限制
+        val name = if (encoded.length <= MAX_ENCODED_LENGTH) {
+            "s=$encoded"
+        } else {
+            "h=" + ENCODER.encodeToString(MessageDigest.getInstance("SHA-256").digest(bytes))
+        }
+        if (LEGACY_NAME.matches(id)) {
+            for (extension in arrayOf(".dat", ".journal")) {
+                val legacy = File(directory, id + extension)
+                val file = File(directory, name + extension)
+                if (legacy.isFile && !file.exists() && !legacy.renameTo(file)) {
+                    throw IOException("无法重命名存储文件 ${legacy.name}")
+                }
+            }
+        }
+        return name
+    }
+
+    private fun serialize(
+        item : ItemStack?
+    ) : ByteArray {
+        if (item == null) {
+            return ByteArray(0)
+        }
+        return NBT.itemStackToNBT(item).toString().toByteArray(Charsets.UTF_8)
+    }
+
+    private fun deserialize(
+        data : ByteArray
+    ) : ItemStack? {
+        return NBT.itemStackFromNBT(NBT.parseNBT(String(data, Charsets.UTF_8)))
+    }
+
+    private class SlotChange(
+        val item : ItemStack?
+    )
+
+    companion object {
+        private val ENCODER = Base64.getUrlEncoder().withoutPadding()
+        private const val MAX_ENCODED_LENGTH = 200
+        /** 旧版本中可以安全地直接用作文件名的 ID */
+        private val LEGACY_NAME = Regex("[A-Za-z0-9_-][A-Za-z0-9_.-]*")
+        private val FOLIA = try {
+            Class.forName("io.papermc.paper.threadedregions.scheduler.AsyncScheduler")
+            true
+        } catch (e : ClassNotFoundException) {
+            false
+        }
+    }
+}